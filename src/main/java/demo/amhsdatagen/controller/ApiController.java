@@ -1,25 +1,34 @@
 package demo.amhsdatagen.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import demo.amhsdatagen.model.UserSession;
+import demo.amhsdatagen.service.ConfigService;
 import demo.amhsdatagen.service.DataFileService;
 import demo.amhsdatagen.service.InputGeneratorService;
 import demo.amhsdatagen.service.LineEndpointService;
+import demo.amhsdatagen.service.OhtLogQueryService;
 import demo.amhsdatagen.service.CheckService;
 import demo.amhsdatagen.service.StationsService;
+import demo.amhsdatagen.service.TrafficGeneratorService;
+import demo.amhsdatagen.service.TrajectoryService;
 import demo.amhsdatagen.service.UdpGeneratorService;
+import demo.amhsdatagen.service.UdpReplayService;
 import demo.amhsdatagen.service.Visualize2DService;
 import demo.amhsdatagen.service.Visualize3DService;
 import demo.amhsdatagen.service.UserTableService;
 import demo.amhsdatagen.service.ResetService;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.servlet.http.HttpSession;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,11 +48,18 @@ public class ApiController {
     private final Visualize3DService visualize3DService;
     private final UserTableService userTableService;
     private final ResetService resetService;
+    private final ConfigService configService;
+    private final UdpReplayService udpReplayService;
+    private final TrafficGeneratorService trafficGeneratorService;
+    private final OhtLogQueryService ohtLogQueryService;
+    private final TrajectoryService trajectoryService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public ApiController(InputGeneratorService generatorService, DataFileService dataFileService, LineEndpointService lineEndpointService,
                          CheckService checkService, StationsService stationsService, UdpGeneratorService udpGeneratorService,
-                         Visualize2DService visualize2DService, Visualize3DService visualize3DService, UserTableService userTableService, ResetService resetService) {
+                         Visualize2DService visualize2DService, Visualize3DService visualize3DService, UserTableService userTableService, ResetService resetService,
+                         ConfigService configService, UdpReplayService udpReplayService, TrafficGeneratorService trafficGeneratorService,
+                         OhtLogQueryService ohtLogQueryService, TrajectoryService trajectoryService) {
         this.generatorService = generatorService;
         this.dataFileService = dataFileService;
         this.lineEndpointService = lineEndpointService;
@@ -54,6 +70,11 @@ public class ApiController {
         this.visualize3DService = visualize3DService;
         this.userTableService = userTableService;
         this.resetService = resetService;
+        this.configService = configService;
+        this.udpReplayService = udpReplayService;
+        this.trafficGeneratorService = trafficGeneratorService;
+        this.ohtLogQueryService = ohtLogQueryService;
+        this.trajectoryService = trajectoryService;
     }
 
     @GetMapping("/check-status")
@@ -86,6 +107,10 @@ public class ApiController {
             configUpdated.put("checked_addresses", r.addressCount);
             configUpdated.put("checked_lines", r.lineCount);
             configUpdated.put("checked_stations", r.stationCount);
+            configUpdated.put("dropped_line_ids", r.droppedLineIds);
+            configUpdated.put("rule_counts", r.ruleCounts);
+            if (r.connectivity != null) configUpdated.put("connectivity", r.connectivity);
+            configUpdated.put("incremental_check", r.incremental);
             res.put("config_updated", configUpdated);
             
             // 상세한 터미널 출력
@@ -187,6 +212,53 @@ public class ApiController {
         }
     }
 
+    @PostMapping("/run-udp-simulation")
+    public ResponseEntity<Map<String, Object>> runUdpSimulation(@RequestBody java.util.List<Map<String, Object>> payload, HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        try {
+            UserSession userSession = (UserSession) session.getAttribute("userSession");
+            if (userSession == null || !userSession.isLoggedIn()) {
+                res.put("success", false);
+                res.put("message", "로그인이 필요합니다.");
+                return ResponseEntity.status(401).body(res);
+            }
+            
+            String userId = userSession.getUserId();
+            java.util.List<UdpGeneratorService.Request> requests = toUdpRequests(payload);
+            UdpGeneratorService.Result r = udpGeneratorService.runSimulation(userId, requests);
+            res.put("success", true);
+            res.put("message", "OHT fleet simulation completed. Processed " + requests.size() + " vehicles.");
+            Map<String, Object> exec = new HashMap<>();
+            exec.put("terminal_logs", (r.summary!=null?r.summary+"\n\n":"") + (r.content!=null?r.content:""));
+            res.put("execution_output", exec);
+            Map<String, Object> configUpdated = new HashMap<>();
+            configUpdated.put("status", "OK");
+            configUpdated.put("method", "udp_fleet_simulation");
+            res.put("config_updated", configUpdated);
+            return ResponseEntity.ok(res);
+        } catch (Exception e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(res);
+        }
+    }
+
+    // [{startAddress|start_address, destinationAddress|destination_address, ohtId|oht_id}, ...]
+    private static java.util.List<UdpGeneratorService.Request> toUdpRequests(java.util.List<?> list) {
+        java.util.List<UdpGeneratorService.Request> requests = new java.util.ArrayList<>();
+        for (Object o : list) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> item = (Map<String, Object>) o;
+            UdpGeneratorService.Request req = new UdpGeneratorService.Request();
+            req.startAddress = ((Number) item.getOrDefault("startAddress", item.getOrDefault("start_address", 0))).intValue();
+            req.destinationAddress = ((Number) item.getOrDefault("destinationAddress", item.getOrDefault("destination_address", 0))).intValue();
+            Object oid = item.getOrDefault("ohtId", item.get("oht_id"));
+            req.ohtId = oid != null ? String.valueOf(oid) : null;
+            requests.add(req);
+        }
+        return requests;
+    }
+
     @PostMapping("/run-udp-generator")
     public ResponseEntity<Map<String, Object>> runUdpGenerator(@RequestBody Object payload, HttpSession session) {
         Map<String, Object> res = new HashMap<>();
@@ -200,17 +272,7 @@ public class ApiController {
             
             String userId = userSession.getUserId();
             if (payload instanceof java.util.List) {
-                @SuppressWarnings("unchecked")
-                java.util.List<Map<String, Object>> list = (java.util.List<Map<String, Object>>) payload;
-                java.util.List<UdpGeneratorService.Request> requests = new java.util.ArrayList<>();
-                for (Map<String, Object> item : list) {
-                    UdpGeneratorService.Request req = new UdpGeneratorService.Request();
-                    req.startAddress = ((Number) item.getOrDefault("startAddress", item.getOrDefault("start_address", 0))).intValue();
-                    req.destinationAddress = ((Number) item.getOrDefault("destinationAddress", item.getOrDefault("destination_address", 0))).intValue();
-                    Object oid = item.getOrDefault("ohtId", item.get("oht_id"));
-                    req.ohtId = oid != null ? String.valueOf(oid) : null;
-                    requests.add(req);
-                }
+                java.util.List<UdpGeneratorService.Request> requests = toUdpRequests((java.util.List<?>) payload);
                 UdpGeneratorService.Result r = udpGeneratorService.runGenerateBulk(userId, requests);
                 res.put("success", true);
                 res.put("message", "UDP Generator bulk operation completed successfully. Processed " + requests.size() + " requests.");
@@ -378,10 +440,12 @@ public class ApiController {
                     }
                 }
                 if (wantLog) {
-                    var logOpt = userTableService.findByUserIdAndKey(userId, "oht_track.datalog");
-                    if (logOpt.isPresent()) {
+                    if (configService.hasOhtLog(userId)) {
                         zos.putNextEntry(new java.util.zip.ZipEntry("oht_track.datalog"));
-                        zos.write(logOpt.get().getConfigValue().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                        // 청크를 순서대로 zip 엔트리에 바로 기록
+                        java.io.Writer w = new java.io.OutputStreamWriter(zos, java.nio.charset.StandardCharsets.UTF_8);
+                        configService.streamOhtLog(userId, w);
+                        w.flush();
                         zos.closeEntry();
                     }
                 }
@@ -464,15 +528,14 @@ public class ApiController {
             }
             
             String userId = userSession.getUserId();
-            var opt = userTableService.findByUserIdAndKey(userId, "layout_seed.output");
+            var opt = configService.getOutputSnapshot(userId);
             if (opt.isEmpty()) {
                 res.put("success", false);
                 res.put("message", "output not found in DB");
                 return ResponseEntity.ok(res);
             }
-            JsonNode node = objectMapper.readTree(opt.get().getConfigValue());
             res.put("success", true);
-            res.put("data", node);
+            res.put("data", opt.get());
             return ResponseEntity.ok(res);
         } catch (Exception e) {
             res.put("success", false);
@@ -481,8 +544,9 @@ public class ApiController {
         }
     }
 
+    // 로그 줄을 List로 모으지 않고 청크를 읽는 대로 JSON 배열로 바로 스트리밍
     @GetMapping("/get-udp-log")
-    public ResponseEntity<Map<String, Object>> getUdpLog(HttpSession session) {
+    public ResponseEntity<?> getUdpLog(HttpSession session) {
         Map<String, Object> res = new HashMap<>();
         try {
             UserSession userSession = (UserSession) session.getAttribute("userSession");
@@ -493,17 +557,116 @@ public class ApiController {
             }
             
             String userId = userSession.getUserId();
-            var logOpt = userTableService.findByUserIdAndKey(userId, "oht_track.datalog");
-            if (logOpt.isEmpty()) {
+            if (!configService.hasOhtLog(userId)) {
                 res.put("success", false);
                 res.put("message", "oht_track.datalog not found in DB");
                 return ResponseEntity.ok(res);
             }
-            String content = logOpt.get().getConfigValue();
-            var lines = java.util.Arrays.asList(content.split("\n"));
+            StreamingResponseBody body = out -> {
+                try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+                    gen.writeStartObject();
+                    gen.writeBooleanField("success", true);
+                    gen.writeArrayFieldStart("lines");
+                    configService.forEachOhtLogLine(userId, line -> {
+                        try {
+                            gen.writeString(line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                }
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        } catch (Exception e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(res);
+        }
+    }
+
+    // 시간 구간 / 차량 조건으로 OHT 로그 레코드 조회 (전체 로그를 읽지 않고 인덱스로 청크 선별)
+    // from/to: epoch ms 또는 "yyyy-MM-dd HH:mm:ss[.SSS]", vehicles: 쉼표 구분 (OHT_1,OHT2,3), cursor: 이전 응답의 nextCursor
+    @GetMapping("/oht-log/query")
+    public ResponseEntity<Map<String, Object>> queryOhtLog(@RequestParam(required = false) String from,
+                                                           @RequestParam(required = false) String to,
+                                                           @RequestParam(required = false) String vehicles,
+                                                           @RequestParam(required = false) Integer limit,
+                                                           @RequestParam(required = false) String cursor,
+                                                           @RequestParam(required = false) Boolean includeText,
+                                                           HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        try {
+            UserSession userSession = (UserSession) session.getAttribute("userSession");
+            if (userSession == null || !userSession.isLoggedIn()) {
+                res.put("success", false);
+                res.put("message", "로그인이 필요합니다.");
+                return ResponseEntity.status(401).body(res);
+            }
+            
+            OhtLogQueryService.Query q = new OhtLogQueryService.Query();
+            q.fromTime = OhtLogQueryService.parseTime(from);
+            q.toTime = OhtLogQueryService.parseTime(to);
+            if (vehicles != null) q.vehicles.addAll(java.util.Arrays.asList(vehicles.split(",")));
+            if (limit != null) q.limit = limit;
+            q.cursor = cursor;
+            if (includeText != null) q.includeText = includeText;
+            
+            res.put("data", ohtLogQueryService.query(userSession.getUserId(), q));
+            res.put("success", true);
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(res);
+        } catch (Exception e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(res);
+        }
+    }
+
+    // OHT별 이동 궤적을 좌표로 변환해 반환 (뷰어의 클라이언트 측 로그 파싱/솎아내기 대체)
+    // maxPoints: OHT당 최대 포인트 수, interval: OHT당 최소 포인트 간격(ms), layers: z6022,z4822 또는 z 값
+    @GetMapping("/oht-log/trajectories")
+    public ResponseEntity<Map<String, Object>> getOhtTrajectories(@RequestParam(required = false) String from,
+                                                                  @RequestParam(required = false) String to,
+                                                                  @RequestParam(required = false) String vehicles,
+                                                                  @RequestParam(required = false) String layers,
+                                                                  @RequestParam(required = false) Integer maxPoints,
+                                                                  @RequestParam(required = false) Long interval,
+                                                                  HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        try {
+            UserSession userSession = (UserSession) session.getAttribute("userSession");
+            if (userSession == null || !userSession.isLoggedIn()) {
+                res.put("success", false);
+                res.put("message", "로그인이 필요합니다.");
+                return ResponseEntity.status(401).body(res);
+            }
+            
+            String userId = userSession.getUserId();
+            if (!configService.hasOhtLog(userId)) {
+                res.put("success", false);
+                res.put("message", "oht_track.datalog not found in DB");
+                return ResponseEntity.ok(res);
+            }
+            TrajectoryService.Query q = new TrajectoryService.Query();
+            q.fromTime = OhtLogQueryService.parseTime(from);
+            q.toTime = OhtLogQueryService.parseTime(to);
+            if (vehicles != null) q.vehicles.addAll(java.util.Arrays.asList(vehicles.split(",")));
+            q.layers = TrajectoryService.parseLayers(layers);
+            if (maxPoints != null) q.maxPoints = maxPoints;
+            if (interval != null) q.minIntervalMs = interval;
+            
+            res.put("data", trajectoryService.trajectories(userId, q));
             res.put("success", true);
-            res.put("lines", lines);
             return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(res);
         } catch (Exception e) {
             res.put("success", false);
             res.put("message", e.getMessage());
@@ -677,6 +840,7 @@ public class ApiController {
             ObjectNode outputNode = objectMapper.createObjectNode();
             System.out.println("🔄 layout_seed.output 초기화 시작");
             userTableService.saveToUserTable(userId, "layout_seed.output", outputNode.toPrettyString());
+            configService.invalidateLayout(userId);
             System.out.println("✅ layout_seed.output 초기화 완료");
             
             res.put("success", true);
@@ -773,17 +937,16 @@ public class ApiController {
             
             if (tableExists) {
                 // 데이터 개수 확인
-                var inputOpt = userTableService.findByUserIdAndKey(userId, "layout_seed.input");
-                var outputOpt = userTableService.findByUserIdAndKey(userId, "layout_seed.output");
-                var ohtLogOpt = userTableService.findByUserIdAndKey(userId, "oht_track.datalog");
+                boolean hasOutput = userTableService.hasConfigKey(userId, "layout_seed.output");
+                dbInfo.put("hasInput", userTableService.hasConfigKey(userId, "layout_seed.input"));
+                dbInfo.put("hasOutput", hasOutput);
+                dbInfo.put("hasOhtLog", configService.hasOhtLog(userId));
+                dbInfo.put("ohtLogStorage", userTableService.ohtLogStorage(userId));
                 
-                dbInfo.put("hasInput", inputOpt.isPresent());
-                dbInfo.put("hasOutput", outputOpt.isPresent());
-                dbInfo.put("hasOhtLog", ohtLogOpt.isPresent());
-                
-                if (outputOpt.isPresent()) {
+                if (hasOutput) {
                     try {
-                        JsonNode output = objectMapper.readTree(outputOpt.get().getConfigValue());
+                        // 캐시된 output 트리 사용 (CLOB 재파싱 없음)
+                        JsonNode output = configService.getOutputSnapshot(userId).orElseThrow();
                         dbInfo.put("addressCount", output.path("addresses").size());
                         dbInfo.put("lineCount", output.path("lines").size());
                         dbInfo.put("stationCount", output.path("stations").size());
@@ -818,6 +981,8 @@ public class ApiController {
             if (userTableService.isUserTableExists(userId)) {
                 String tableName = userId + "_amhs_data";
                 userTableService.jdbcTemplate.execute("DROP TABLE IF EXISTS \"" + tableName + "\"");
+                configService.invalidateLayout(userId);
+                configService.clearOhtLog(userId);
                 res.put("message", "UserID " + userId + " 데이터가 삭제되었습니다.");
             } else {
                 res.put("message", "UserID " + userId + " 데이터가 존재하지 않습니다.");
@@ -832,6 +997,155 @@ public class ApiController {
         }
     }
 
+    @GetMapping("/layout-cache-stats")
+    public ResponseEntity<Map<String, Object>> getLayoutCacheStats(HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        UserSession userSession = (UserSession) session.getAttribute("userSession");
+        if (userSession == null || !userSession.isLoggedIn()) {
+            res.put("success", false);
+            res.put("message", "로그인이 필요합니다.");
+            return ResponseEntity.badRequest().body(res);
+        }
+        res.put("success", true);
+        res.put("data", configService.layoutCacheStats());
+        res.put("routing", udpGeneratorService.routingCacheStats());
+        return ResponseEntity.ok(res);
+    }
+
+    // 저장된 OHT 로그를 UDP로 실시간/가속/최대속도 재생 (백그라운드 실행, status로 진행 확인)
+    // body: {host, port, mode: realtime|accelerated|max, speed, maxPacketsPerSecond, batchSize}
+    @PostMapping("/udp-replay/start")
+    public ResponseEntity<Map<String, Object>> startUdpReplay(@RequestBody(required = false) Map<String, Object> body, HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        try {
+            UserSession userSession = (UserSession) session.getAttribute("userSession");
+            if (userSession == null || !userSession.isLoggedIn()) {
+                res.put("success", false);
+                res.put("message", "로그인이 필요합니다.");
+                return ResponseEntity.status(401).body(res);
+            }
+            
+            String userId = userSession.getUserId();
+            Map<String, Object> req = body != null ? body : new HashMap<>();
+            UdpReplayService.Options options = udpReplayService.defaultOptions();
+            if (req.get("host") != null) options.host = String.valueOf(req.get("host"));
+            if (req.get("port") instanceof Number n) options.port = n.intValue();
+            options.pacing = UdpReplayService.parsePacing((String) req.get("mode"));
+            if (req.get("speed") instanceof Number n) options.speed = n.doubleValue();
+            if (req.get("maxPacketsPerSecond") instanceof Number n) options.maxPacketsPerSecond = n.doubleValue();
+            if (req.get("batchSize") instanceof Number n) options.batchSize = n.intValue();
+            
+            res.put("data", udpReplayService.start(userId, options));
+            res.put("success", true);
+            res.put("message", "UDP 재생을 시작했습니다.");
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(res);
+        } catch (Exception e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(res);
+        }
+    }
+
+    @PostMapping("/udp-replay/stop")
+    public ResponseEntity<Map<String, Object>> stopUdpReplay(HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        UserSession userSession = (UserSession) session.getAttribute("userSession");
+        if (userSession == null || !userSession.isLoggedIn()) {
+            res.put("success", false);
+            res.put("message", "로그인이 필요합니다.");
+            return ResponseEntity.status(401).body(res);
+        }
+        boolean stopped = udpReplayService.stop(userSession.getUserId());
+        res.put("success", true);
+        res.put("message", stopped ? "UDP 재생 중지를 요청했습니다." : "실행 중인 UDP 재생이 없습니다.");
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/udp-replay/status")
+    public ResponseEntity<Map<String, Object>> getUdpReplayStatus(HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        UserSession userSession = (UserSession) session.getAttribute("userSession");
+        if (userSession == null || !userSession.isLoggedIn()) {
+            res.put("success", false);
+            res.put("message", "로그인이 필요합니다.");
+            return ResponseEntity.status(401).body(res);
+        }
+        res.put("success", true);
+        res.put("data", udpReplayService.status(userSession.getUserId()));
+        return ResponseEntity.ok(res);
+    }
+
+    // 부하 테스트용 연속 트래픽 생성 (정지할 때까지 랜덤 스테이션 간 작업을 계속 할당)
+    // body: {fleetSize, messagesPerSecond (0: 타임스탬프 기준), sink: log|udp, host, port}
+    @PostMapping("/traffic/start")
+    public ResponseEntity<Map<String, Object>> startTraffic(@RequestBody(required = false) Map<String, Object> body, HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        try {
+            UserSession userSession = (UserSession) session.getAttribute("userSession");
+            if (userSession == null || !userSession.isLoggedIn()) {
+                res.put("success", false);
+                res.put("message", "로그인이 필요합니다.");
+                return ResponseEntity.status(401).body(res);
+            }
+            
+            String userId = userSession.getUserId();
+            Map<String, Object> req = body != null ? body : new HashMap<>();
+            TrafficGeneratorService.Options options = trafficGeneratorService.defaultOptions();
+            if (req.get("fleetSize") instanceof Number n) options.fleetSize = n.intValue();
+            if (req.get("messagesPerSecond") instanceof Number n) options.messagesPerSecond = n.doubleValue();
+            if (req.get("maxRecords") instanceof Number n) options.maxRecords = n.longValue();
+            options.sink = TrafficGeneratorService.parseSink((String) req.get("sink"));
+            if (req.get("host") != null) options.host = String.valueOf(req.get("host"));
+            if (req.get("port") instanceof Number n) options.port = n.intValue();
+            
+            res.put("data", trafficGeneratorService.start(userId, options));
+            res.put("success", true);
+            res.put("message", "연속 트래픽 생성을 시작했습니다.");
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(res);
+        } catch (Exception e) {
+            res.put("success", false);
+            res.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(res);
+        }
+    }
+
+    @PostMapping("/traffic/stop")
+    public ResponseEntity<Map<String, Object>> stopTraffic(HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        UserSession userSession = (UserSession) session.getAttribute("userSession");
+        if (userSession == null || !userSession.isLoggedIn()) {
+            res.put("success", false);
+            res.put("message", "로그인이 필요합니다.");
+            return ResponseEntity.status(401).body(res);
+        }
+        boolean stopped = trafficGeneratorService.stop(userSession.getUserId());
+        res.put("success", true);
+        res.put("message", stopped ? "연속 트래픽 생성 중지를 요청했습니다." : "실행 중인 트래픽 생성이 없습니다.");
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/traffic/status")
+    public ResponseEntity<Map<String, Object>> getTrafficStatus(HttpSession session) {
+        Map<String, Object> res = new HashMap<>();
+        UserSession userSession = (UserSession) session.getAttribute("userSession");
+        if (userSession == null || !userSession.isLoggedIn()) {
+            res.put("success", false);
+            res.put("message", "로그인이 필요합니다.");
+            return ResponseEntity.status(401).body(res);
+        }
+        res.put("success", true);
+        res.put("data", trafficGeneratorService.status(userSession.getUserId()));
+        return ResponseEntity.ok(res);
+    }
+
     @PostMapping("/update-oht-log")
     public ResponseEntity<Map<String, Object>> updateOhtLog(HttpSession session) {
         Map<String, Object> res = new HashMap<>();
@@ -849,15 +1163,13 @@ public class ApiController {
             // 모든 키 조회해서 확인
             List<String> keys = userTableService.getAllConfigKeys(userId);
             
-            // OHT 로그 데이터를 DB에서 가져와서 파일로 저장
-            Optional<String> ohtLogOpt = userTableService.getConfigValue(userId, "oht_track.datalog");
-            if (ohtLogOpt.isPresent()) {
-                String ohtLogContent = ohtLogOpt.get();
-                
-                // 파일로 저장
+            // OHT 로그 청크를 DB에서 순서대로 읽어 파일로 스트리밍 저장
+            if (configService.hasOhtLog(userId)) {
                 java.nio.file.Path outputPath = java.nio.file.Paths.get("data", "output_oht_track_data.log");
                 java.nio.file.Files.createDirectories(outputPath.getParent());
-                java.nio.file.Files.write(outputPath, ohtLogContent.getBytes());
+                try (java.io.Writer w = java.nio.file.Files.newBufferedWriter(outputPath)) {
+                    configService.streamOhtLog(userId, w);
+                }
                 
                 res.put("success", true);
                 res.put("message", "OHT 로그가 oht_track_data.log 파일로 저장되었습니다.");
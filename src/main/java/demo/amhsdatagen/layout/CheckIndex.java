@@ -0,0 +1,196 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The indexes behind the layout check, kept between checks so that re-checking after a small
+ * edit costs time proportional to the edit instead of the layout. Built once from a full check,
+ * then brought up to date with the {@link LayoutDelta}s of later saves.
+ *
+ * Line-side state grows with every appended line: line id counts, the undirected edge set that
+ * decides overlaps, endpoint degrees, the per-line rule counts and the {@link Connectivity}
+ * union-find. Removing lines is only supported for lines currently flagged as overlaps, which
+ * is what the check itself removes; those never counted towards degrees or connectivity, so
+ * only counts change. The address table is fixed, so the address rule counts are carried over
+ * from the full check.
+ *
+ * A delta that was made against a layout with a different number of lines than the index
+ * holds (the save was not a pure append to what was checked) is refused, and the owner falls
+ * back to a full check. Counts match {@link LayoutRules} on the same layout, with
+ * {@code highDegree(minDegree, overlaps)}. Not thread-safe; the owner hands it to one check at
+ * a time.
+ */
+public final class CheckIndex {
+
+    private final LayoutGraph layout;
+    private final int minDegree;
+    private final long duplicateAddressIds;
+    private final long duplicateAddressNames;
+    private final long duplicatePositions;
+
+    private final LongIntHashMap lineIds;
+    private long duplicateLineIds;
+    private final LongHashSet edges;
+    private final BitSet overlaps = new BitSet();
+    private final LongIntHashMap endpoints;
+    private int[] degree;
+    private long highDegree;
+    private long dangling;
+    private long zeroLength;
+    private long mismatched;
+
+    private final Connectivity connectivity;
+
+    private CheckIndex(LayoutGraph layout, int minDegree, Map<String, LayoutRule.Finding> findings, boolean trackConnectivity) {
+        this.layout = layout;
+        this.minDegree = minDegree;
+        this.duplicateAddressIds = findings.get(LayoutRules.DUPLICATE_ADDRESS_IDS).count;
+        this.duplicateAddressNames = findings.get(LayoutRules.DUPLICATE_ADDRESS_NAMES).count;
+        this.duplicatePositions = findings.get(LayoutRules.DUPLICATE_POSITIONS).count;
+        this.lineIds = new LongIntHashMap(layout.lineCount());
+        this.edges = new LongHashSet(layout.lineCount());
+        this.endpoints = new LongIntHashMap(layout.addressCount());
+        this.degree = new int[Math.max(layout.addressCount(), 16)];
+        this.connectivity = trackConnectivity ? new Connectivity(layout) : null;
+    }
+
+    /**
+     * Indexes every line of the layout. The findings are those of the full check on the same
+     * layout and supply the address rule counts.
+     */
+    public static CheckIndex build(LayoutGraph layout, int minDegree, Map<String, LayoutRule.Finding> findings,
+                                   boolean trackConnectivity) {
+        CheckIndex index = new CheckIndex(layout, minDegree, findings, trackConnectivity);
+        for (int i = 0; i < layout.lineCount(); i++) index.indexLine(i);
+        return index;
+    }
+
+    /**
+     * Applies the deltas in order. Returns false when one of them is not supported (it then may
+     * have been applied in part, and the index must be dropped).
+     */
+    public boolean apply(List<LayoutDelta> deltas) {
+        for (LayoutDelta delta : deltas) {
+            if (!apply(delta)) return false;
+        }
+        return true;
+    }
+
+    private boolean apply(LayoutDelta delta) {
+        if (delta.baseLineCount() >= 0 && delta.baseLineCount() != layout.lineCount()) return false;
+        int[] removed = delta.removedLines();
+        if (removed.length > 0) {
+            BitSet drop = new BitSet();
+            for (int i : removed) {
+                if (i < 0 || i >= layout.lineCount() || !overlaps.get(i)) return false;
+                drop.set(i);
+            }
+            for (int i = drop.nextSetBit(0); i >= 0; i = drop.nextSetBit(i + 1)) unindexOverlap(i);
+            // every dropped line is an overlap, so an overlap moves down by the drops before it
+            BitSet moved = new BitSet();
+            int gone = 0;
+            for (int i = overlaps.nextSetBit(0); i >= 0; i = overlaps.nextSetBit(i + 1)) {
+                if (drop.get(i)) gone++;
+                else moved.set(i - gone);
+            }
+            overlaps.clear();
+            overlaps.or(moved);
+            layout.removeLines(drop);
+        }
+
+        LayoutGraph added = delta.added();
+        for (int k = 0; k < added.lineCount(); k++) indexLine(layout.appendLine(added, k));
+
+        if (delta.replacesStations()) {
+            layout.clearStations();
+            for (int s = 0; s < added.stationCount(); s++) {
+                layout.addStation(added.stationId(s), added.stationName(s), added.stationType(s), added.stationPort(s),
+                        added.stationX(s), added.stationY(s), added.stationZ(s));
+            }
+            if (connectivity != null) connectivity.stationsChanged();
+        }
+        return true;
+    }
+
+    public LayoutGraph layout() { return layout; }
+
+    /** Approximate heap footprint in bytes, including the layout it holds. */
+    public long estimatedBytes() {
+        long bytes = layout.estimatedBytes() + (long) degree.length * 4 + overlaps.size() / 8;
+        bytes += (long) (lineIds.size() + edges.size() + endpoints.size()) * 2 * 12;
+        if (connectivity != null) bytes += connectivity.estimatedBytes();
+        return bytes;
+    }
+
+    /** Lines that repeat an earlier line's connection (what the check removes). */
+    public BitSet overlaps() { return (BitSet) overlaps.clone(); }
+
+    /** Weak/strong components over the lines that are not overlaps, or null when not tracked. */
+    public Connectivity connectivity() { return connectivity; }
+
+    /** Counts by rule id, in the order the full check reports them. */
+    public Map<String, Long> ruleCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put(LayoutRules.DUPLICATE_ADDRESS_IDS, duplicateAddressIds);
+        counts.put(LayoutRules.DUPLICATE_ADDRESS_NAMES, duplicateAddressNames);
+        counts.put(LayoutRules.DUPLICATE_POSITIONS, duplicatePositions);
+        counts.put(LayoutRules.DUPLICATE_LINE_IDS, duplicateLineIds);
+        counts.put(LayoutRules.OVERLAPPING_LINES, (long) overlaps.cardinality());
+        counts.put(LayoutRules.DANGLING_ENDPOINTS, dangling);
+        counts.put(LayoutRules.ZERO_LENGTH_LINES, zeroLength);
+        counts.put(LayoutRules.POSITION_MISMATCH, mismatched);
+        counts.put(LayoutRules.HIGH_DEGREE, highDegree);
+        return counts;
+    }
+
+    private void indexLine(int i) {
+        long id = layout.lineId(i);
+        int seen = lineIds.get(id);
+        if (seen <= 0) {
+            lineIds.put(id, 1);
+        } else {
+            lineIds.put(id, seen + 1);
+            if (seen == 1) duplicateLineIds++;
+        }
+        if (LayoutRules.dangling(layout, i)) dangling++;
+        if (LayoutRules.zeroLength(layout, i)) zeroLength++;
+        if (LayoutRules.mismatched(layout, i)) mismatched++;
+
+        long a = layout.lineFromAddress(i), b = layout.lineToAddress(i);
+        int na = endpoint(a), nb = endpoint(b);
+        if (!edges.add(EdgeIndex.key(na, nb))) {
+            overlaps.set(i);
+            return;
+        }
+        addDegree(na);
+        addDegree(nb);
+        if (connectivity != null) connectivity.addLine(a, b);
+    }
+
+    private void unindexOverlap(int i) {
+        long id = layout.lineId(i);
+        int seen = lineIds.get(id);
+        lineIds.put(id, seen - 1);
+        if (seen == 2) duplicateLineIds--;
+        if (LayoutRules.dangling(layout, i)) dangling--;
+        if (LayoutRules.zeroLength(layout, i)) zeroLength--;
+        if (LayoutRules.mismatched(layout, i)) mismatched--;
+    }
+
+    private int endpoint(long address) {
+        int k = endpoints.get(address);
+        if (k >= 0) return k;
+        k = endpoints.size();
+        endpoints.put(address, k);
+        return k;
+    }
+
+    private void addDegree(int node) {
+        if (node >= degree.length) degree = Arrays.copyOf(degree, Math.max(node + 1, degree.length * 2));
+        if (++degree[node] == minDegree) highDegree++;
+    }
+}
@@ -0,0 +1,466 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connected components of a layout's line graph, over the addresses of a {@link LayoutGraph}.
+ *
+ * Nodes are the addresses of the address table (the first entry of each id) plus line
+ * endpoints that are missing from the table, since routing still passes through those.
+ * Weak components, which are what routing sees because it treats lines as undirected, come
+ * from a union-find over the lines (union by size, path halving), so lines can be added one at
+ * a time and the component sizes stay current. Strong components follow the lines' from-to
+ * direction and come from an iterative Tarjan pass. After that pass a new line only updates
+ * them in place: a line that touches a node without lines, or starts at a node nothing leads
+ * to, or ends at a node that leads nowhere, cannot close a cycle; otherwise a search bounded
+ * by {@link #STRONG_SEARCH_LIMIT} nodes looks for a path back from its end to its start. Only
+ * when that search finds a path or runs out of budget is the pass rerun (on demand, and
+ * counted by {@link #strongPasses()}).
+ *
+ * Each station is bound to the nearest address that has a line, the same way the traffic
+ * generator picks its stops. Bindings are kept between calls; lines only ever link more
+ * addresses, so later calls just compare each station with the addresses linked since. Stations
+ * outside the component that holds most stations, or with no line-connected address at all,
+ * are reported as unreachable.
+ *
+ * The address table must not change while an instance is in use; after changing the stations,
+ * call {@link #stationsChanged()}.
+ */
+public final class Connectivity {
+
+    /** Nodes a strong component update may visit before it falls back to a full pass. */
+    public static final int STRONG_SEARCH_LIMIT = 1 << 12;
+
+    private final LayoutGraph layout;
+    private final LongIntHashMap detached = new LongIntHashMap(16);
+    private int nodes;
+    private int[] parent;
+    private int[] size;
+    private final BitSet linked = new BitSet();
+    private final BitSet isolated = new BitSet();
+    private int isolatedCount;
+    // component size -> number of weak components of that size
+    private final TreeMap<Integer, Integer> sizeCounts = new TreeMap<>();
+    private int components;
+    private int linkedCount;
+
+    private int edges;
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+    // per-node edge lists: first out/in edge of a node, next out/in edge of an edge, -1 ends
+    private int[] outHead;
+    private int[] inHead;
+    private int[] nextOut = new int[16];
+    private int[] nextIn = new int[16];
+
+    private boolean strongStale = true;
+    private int[] strongOf = new int[0];
+    private int nextStrongId;
+    private int strongCount;
+    private int largestStrong;
+    private int strongPasses;
+    // visit marks of the bounded search: forward/backward stamp per node
+    private int[] forwardMark = new int[0];
+    private int[] backwardMark = new int[0];
+    private int searchStamp;
+    private int[] searchQueue = new int[0];
+
+    private SpatialIndex addressIndex;
+    private boolean stationsStale = true;
+    private int[] stationAddress = new int[0];
+    // addresses linked since the stations were last bound
+    private int[] newlyLinked = new int[16];
+    private int newlyLinkedCount;
+
+    /** Starts with no lines: every address (first entry of each id) is isolated. */
+    public Connectivity(LayoutGraph layout) {
+        this.layout = layout;
+        nodes = layout.addressCount();
+        parent = new int[Math.max(nodes, 16)];
+        size = new int[parent.length];
+        outHead = new int[parent.length];
+        inHead = new int[parent.length];
+        Arrays.fill(outHead, -1);
+        Arrays.fill(inHead, -1);
+        for (int v = 0; v < nodes; v++) {
+            parent[v] = v;
+            size[v] = 1;
+            if (layout.indexOf(layout.addressId(v)) == v) isolated.set(v);
+        }
+        isolatedCount = isolated.cardinality();
+    }
+
+    /**
+     * @param excludedLines lines to leave out, e.g. overlaps that are about to be removed (may be null)
+     */
+    public static Connectivity analyze(LayoutGraph layout, BitSet excludedLines) {
+        Connectivity c = new Connectivity(layout);
+        for (int i = 0; i < layout.lineCount(); i++) {
+            if (excludedLines == null || !excludedLines.get(i)) c.addLine(layout.lineFromAddress(i), layout.lineToAddress(i));
+        }
+        return c;
+    }
+
+    public void addLine(long fromAddress, long toAddress) {
+        int a = node(fromAddress);
+        int b = node(toAddress);
+        boolean newA = !linked.get(a);
+        boolean newB = !linked.get(b);
+        // whether a had incoming and b outgoing lines before this one
+        boolean reached = inHead[a] >= 0;
+        boolean leads = outHead[b] >= 0;
+        link(a);
+        link(b);
+        if (edges == from.length) {
+            from = Arrays.copyOf(from, edges * 2);
+            to = Arrays.copyOf(to, edges * 2);
+            nextOut = Arrays.copyOf(nextOut, edges * 2);
+            nextIn = Arrays.copyOf(nextIn, edges * 2);
+        }
+        from[edges] = a;
+        to[edges] = b;
+        nextOut[edges] = outHead[a];
+        outHead[a] = edges;
+        nextIn[edges] = inHead[b];
+        inHead[b] = edges;
+        edges++;
+        if (!strongStale) updateStrong(a, b, newA, newB, reached, leads);
+        union(a, b);
+    }
+
+    /** Number of nodes, including endpoints missing from the address table. */
+    public int nodeCount() { return nodes; }
+
+    /** Number of weak components that have at least one line. */
+    public int componentCount() { return components; }
+
+    /** Node counts of the largest weak components, largest first, at most limit of them. */
+    public int[] componentSizes(int limit) {
+        int[] out = new int[Math.min(limit, components)];
+        int n = 0;
+        for (Map.Entry<Integer, Integer> e : sizeCounts.descendingMap().entrySet()) {
+            for (int k = 0; k < e.getValue() && n < out.length; k++) out[n++] = e.getKey();
+            if (n == out.length) break;
+        }
+        return out;
+    }
+
+    public int largestComponent() {
+        return sizeCounts.isEmpty() ? 0 : sizeCounts.lastKey();
+    }
+
+    /** Line-connected nodes that are not in the largest weak component. */
+    public int outsideLargest() { return linkedCount - largestComponent(); }
+
+    /** Address indexes (first entry of each id) that no line touches. */
+    public int[] isolatedAddresses() { return isolated.stream().toArray(); }
+
+    public int isolatedCount() { return isolatedCount; }
+
+    /** Number of strong components among line-connected nodes, following line direction. */
+    public int strongComponentCount() {
+        if (strongStale) strongComponents();
+        return strongCount;
+    }
+
+    public int largestStrongComponent() {
+        if (strongStale) strongComponents();
+        return largestStrong;
+    }
+
+    /** Number of full Tarjan passes so far (the first one, plus reruns the in-place update could not avoid). */
+    public int strongPasses() { return strongPasses; }
+
+    /** The station list of the layout changed; stations are bound again on the next call. */
+    public void stationsChanged() {
+        stationsStale = true;
+    }
+
+    /** Station indexes that cannot reach the main component. */
+    public int[] unreachableStations() {
+        int stations = layout.stationCount();
+        if (stations == 0) return new int[0];
+        bindStations();
+        int[] root = new int[stations];
+        for (int s = 0; s < stations; s++) root[s] = stationAddress[s] >= 0 ? find(stationAddress[s]) : -1;
+
+        // the component holding most stations is the main one
+        LongIntHashMap perRoot = new LongIntHashMap(stations);
+        int main = -1;
+        int mainCount = 0;
+        for (int s = 0; s < stations; s++) {
+            if (root[s] < 0) continue;
+            int n = perRoot.get(root[s]);
+            n = n < 0 ? 1 : n + 1;
+            perRoot.put(root[s], n);
+            if (n > mainCount) {
+                mainCount = n;
+                main = root[s];
+            }
+        }
+        int[] out = new int[stations];
+        int n = 0;
+        for (int s = 0; s < stations; s++) {
+            if (root[s] < 0 || root[s] != main) out[n++] = s;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // endpoints outside the address table get node ids after the table
+    private int node(long address) {
+        int i = layout.indexOf(address);
+        if (i >= 0) return i;
+        int k = detached.putIfAbsent(address, nodes);
+        if (k >= 0) return k;
+        if (nodes == parent.length) {
+            parent = Arrays.copyOf(parent, nodes * 2);
+            size = Arrays.copyOf(size, nodes * 2);
+            outHead = Arrays.copyOf(outHead, nodes * 2);
+            inHead = Arrays.copyOf(inHead, nodes * 2);
+            Arrays.fill(outHead, nodes, nodes * 2, -1);
+            Arrays.fill(inHead, nodes, nodes * 2, -1);
+        }
+        parent[nodes] = nodes;
+        size[nodes] = 1;
+        return nodes++;
+    }
+
+    /** Approximate heap footprint in bytes. */
+    public long estimatedBytes() {
+        long bytes = 256 + (long) parent.length * 4 * 4 + (long) from.length * 4 * 4;
+        bytes += (long) (strongOf.length + forwardMark.length + backwardMark.length + searchQueue.length) * 4;
+        bytes += (long) (stationAddress.length + newlyLinked.length) * 4 + (linked.size() + isolated.size()) / 8;
+        bytes += (long) detached.size() * 2 * 12;
+        return bytes;
+    }
+
+    // Binds every station on the first call or after stationsChanged(), else only checks the
+    // addresses linked since the last call (ties go to the lower address index, as in a full search)
+    private void bindStations() {
+        int stations = layout.stationCount();
+        if (stationsStale || stationAddress.length != stations) {
+            stationAddress = new int[stations];
+            Arrays.fill(stationAddress, -1);
+            if (linkedCount > 0) {
+                if (addressIndex == null) addressIndex = SpatialIndex.forAddresses(layout);
+                for (int s = 0; s < stations; s++) {
+                    stationAddress[s] = addressIndex.nearestOne(layout.stationX(s), layout.stationY(s), layout.stationZ(s),
+                            i -> !linked.get(i) || layout.indexOf(layout.addressId(i)) != i);
+                }
+            }
+        } else if (newlyLinkedCount > 0) {
+            int[] candidates = Arrays.copyOf(newlyLinked, newlyLinkedCount);
+            Arrays.sort(candidates);
+            double[] cx = new double[candidates.length];
+            double[] cy = new double[candidates.length];
+            double[] cz = new double[candidates.length];
+            for (int k = 0; k < candidates.length; k++) {
+                cx[k] = layout.x(candidates[k]);
+                cy[k] = layout.y(candidates[k]);
+                cz[k] = layout.z(candidates[k]);
+            }
+            SpatialIndex recent = SpatialIndex.build(cx, cy, cz, candidates.length);
+            for (int s = 0; s < stations; s++) {
+                double qx = layout.stationX(s), qy = layout.stationY(s), qz = layout.stationZ(s);
+                int k = recent.nearestOne(qx, qy, qz, null);
+                int current = stationAddress[s];
+                if (current < 0 || closer(candidates[k], current, qx, qy, qz)) stationAddress[s] = candidates[k];
+            }
+        }
+        stationsStale = false;
+        newlyLinkedCount = 0;
+    }
+
+    private boolean closer(int a, int b, double qx, double qy, double qz) {
+        double da = distance2(a, qx, qy, qz), db = distance2(b, qx, qy, qz);
+        return da < db || (da == db && a < b);
+    }
+
+    private double distance2(int a, double qx, double qy, double qz) {
+        double dx = layout.x(a) - qx, dy = layout.y(a) - qy, dz = layout.z(a) - qz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void link(int v) {
+        if (linked.get(v)) return;
+        linked.set(v);
+        if (isolated.get(v)) {
+            isolated.clear(v);
+            isolatedCount--;
+            if (!stationsStale) {
+                if (newlyLinkedCount == newlyLinked.length) newlyLinked = Arrays.copyOf(newlyLinked, newlyLinkedCount * 2);
+                newlyLinked[newlyLinkedCount++] = v;
+            }
+        }
+        linkedCount++;
+        components++;
+        sizeCounts.merge(1, 1, Integer::sum);
+    }
+
+    private int find(int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) return;
+        if (size[ra] < size[rb]) {
+            int t = ra;
+            ra = rb;
+            rb = t;
+        }
+        uncount(size[ra]);
+        uncount(size[rb]);
+        parent[rb] = ra;
+        size[ra] += size[rb];
+        sizeCounts.merge(size[ra], 1, Integer::sum);
+        components--;
+    }
+
+    private void uncount(int componentSize) {
+        sizeCounts.compute(componentSize, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    // Keeps the strong components current after line a->b was added, or marks them stale
+    private void updateStrong(int a, int b, boolean newA, boolean newB, boolean reached, boolean leads) {
+        if (strongOf.length < nodes) {
+            int n = strongOf.length;
+            strongOf = Arrays.copyOf(strongOf, Math.max(nodes, n * 2));
+            Arrays.fill(strongOf, n, strongOf.length, -1);
+        }
+        if (newA) newStrong(a);
+        if (newB && b != a) newStrong(b);
+        // a node without other lines is on no cycle through this one
+        if (newA || newB || strongOf[a] == strongOf[b]) return;
+        // a cycle needs a path b -> ... -> a: there is none if nothing leads to a or b leads nowhere
+        if (!reached || !leads) return;
+        if (!pathBack(a, b)) return;
+        strongStale = true;
+    }
+
+    private void newStrong(int v) {
+        strongOf[v] = nextStrongId++;
+        strongCount++;
+        largestStrong = Math.max(largestStrong, 1);
+    }
+
+    // Bidirectional search for a path b -> a (forward from b, backward from a), not using line
+    // a->b itself. False only when one side ran out of nodes first, which proves there is none;
+    // true when the two sides met or the search exceeded its budget.
+    private boolean pathBack(int a, int b) {
+        if (forwardMark.length < nodes) {
+            forwardMark = Arrays.copyOf(forwardMark, Math.max(nodes, forwardMark.length * 2));
+            backwardMark = Arrays.copyOf(backwardMark, forwardMark.length);
+        }
+        if (searchQueue.length < 2 * (STRONG_SEARCH_LIMIT + 2)) searchQueue = new int[2 * (STRONG_SEARCH_LIMIT + 2)];
+        int stamp = ++searchStamp;
+        // forward queue in [0, half), backward queue in [half, 2 * half)
+        int half = searchQueue.length / 2;
+        int fHead = 0, fTail = 0, bHead = half, bTail = half;
+        forwardMark[b] = stamp;
+        backwardMark[a] = stamp;
+        searchQueue[fTail++] = b;
+        searchQueue[bTail++] = a;
+        int visited = 2;
+        while (fHead < fTail && bHead < bTail) {
+            boolean forward = fTail - fHead <= bTail - bHead;
+            int v = forward ? searchQueue[fHead++] : searchQueue[bHead++];
+            int e = forward ? outHead[v] : inHead[v];
+            for (; e >= 0; e = forward ? nextOut[e] : nextIn[e]) {
+                int w = forward ? to[e] : from[e];
+                if (forward ? forwardMark[w] == stamp : backwardMark[w] == stamp) continue;
+                if (forward ? backwardMark[w] == stamp : forwardMark[w] == stamp) return true;
+                if (++visited > STRONG_SEARCH_LIMIT) return true;
+                if (forward) {
+                    forwardMark[w] = stamp;
+                    searchQueue[fTail++] = w;
+                } else {
+                    backwardMark[w] = stamp;
+                    searchQueue[bTail++] = w;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Tarjan without recursion over the from->to adjacency
+    private void strongComponents() {
+        int[] offset = new int[nodes + 1];
+        for (int e = 0; e < edges; e++) offset[from[e] + 1]++;
+        for (int v = 0; v < nodes; v++) offset[v + 1] += offset[v];
+        int[] target = new int[edges];
+        int[] fill = Arrays.copyOf(offset, nodes);
+        for (int e = 0; e < edges; e++) target[fill[from[e]]++] = to[e];
+
+        int[] index = new int[nodes];
+        int[] low = new int[nodes];
+        Arrays.fill(index, -1);
+        int[] component = new int[nodes];
+        Arrays.fill(component, -1);
+        BitSet onStack = new BitSet(nodes);
+        int[] stack = new int[nodes];
+        int sp = 0;
+        int[] call = new int[nodes];
+        int[] edge = new int[nodes];
+        int next = 0;
+        int count = 0;
+        int largest = 0;
+
+        for (int root = linked.nextSetBit(0); root >= 0; root = linked.nextSetBit(root + 1)) {
+            if (index[root] >= 0) continue;
+            int depth = 0;
+            call[0] = root;
+            edge[root] = offset[root];
+            index[root] = low[root] = next++;
+            stack[sp++] = root;
+            onStack.set(root);
+            while (depth >= 0) {
+                int v = call[depth];
+                if (edge[v] < offset[v + 1]) {
+                    int w = target[edge[v]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = next++;
+                        edge[w] = offset[w];
+                        stack[sp++] = w;
+                        onStack.set(w);
+                        call[++depth] = w;
+                    } else if (onStack.get(w) && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                    continue;
+                }
+                if (low[v] == index[v]) {
+                    int members = 0;
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack.clear(w);
+                        component[w] = count;
+                        members++;
+                    } while (w != v);
+                    count++;
+                    largest = Math.max(largest, members);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int u = call[depth];
+                    if (low[v] < low[u]) low[u] = low[v];
+                }
+            }
+        }
+        strongOf = component;
+        nextStrongId = count;
+        strongCount = count;
+        largestStrong = largest;
+        strongStale = false;
+        strongPasses++;
+    }
+}
@@ -0,0 +1,93 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+
+/**
+ * Incrementally maintained undirected edge set plus adjacency/degree index over dense node indices.
+ * Every appended line is recorded: the edge set answers "is a-b connected" in O(1), the
+ * adjacency chains list neighbours, and the degree counts line incidences (duplicates included).
+ */
+public final class EdgeIndex {
+
+    private final LongHashSet edges;
+    private int[] degree;
+    private int[] head;
+    private int[] next;
+    private int[] target;
+    private int entries;
+
+    public EdgeIndex(int nodeCount, int expectedLines) {
+        this.edges = new LongHashSet(expectedLines);
+        this.degree = new int[Math.max(nodeCount, 1)];
+        this.head = new int[degree.length];
+        Arrays.fill(head, -1);
+        this.next = new int[Math.max(expectedLines * 2, 16)];
+        this.target = new int[next.length];
+    }
+
+    /** Packs an undirected pair into one key, independent of direction. */
+    public static long key(int a, int b) {
+        int lo = Math.min(a, b), hi = Math.max(a, b);
+        return ((long) lo << 32) | (hi & 0xffffffffL);
+    }
+
+    /**
+     * Records a line between nodes a and b. A negative index stands for an endpoint outside
+     * the address table: the known endpoint still gets its degree counted, but no edge is stored.
+     */
+    public void add(int a, int b) {
+        if (a >= 0) degree(a, 1);
+        if (b >= 0) degree(b, 1);
+        if (a < 0 || b < 0) return;
+        edges.add(key(a, b));
+        link(a, b);
+        if (a != b) link(b, a);
+    }
+
+    public boolean contains(int a, int b) {
+        if (a < 0 || b < 0) return false;
+        return edges.contains(key(a, b));
+    }
+
+    public int degree(int node) {
+        return node < degree.length ? degree[node] : 0;
+    }
+
+    /** Neighbours of a node in insertion order (a neighbour appears once per line). */
+    public int[] neighbours(int node) {
+        if (node >= head.length) return new int[0];
+        int count = 0;
+        for (int e = head[node]; e >= 0; e = next[e]) count++;
+        int[] out = new int[count];
+        for (int e = head[node]; e >= 0; e = next[e]) out[--count] = target[e];
+        return out;
+    }
+
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    private void degree(int node, int delta) {
+        ensureNode(node);
+        degree[node] += delta;
+    }
+
+    private void link(int from, int to) {
+        if (entries == next.length) {
+            next = Arrays.copyOf(next, entries * 2);
+            target = Arrays.copyOf(target, entries * 2);
+        }
+        target[entries] = to;
+        next[entries] = head[from];
+        head[from] = entries++;
+    }
+
+    private void ensureNode(int node) {
+        if (node < degree.length) return;
+        int cap = Math.max(node + 1, degree.length * 2);
+        int old = head.length;
+        degree = Arrays.copyOf(degree, cap);
+        head = Arrays.copyOf(head, cap);
+        Arrays.fill(head, old, cap, -1);
+    }
+}
@@ -0,0 +1,102 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int items in [0, capacity) keyed by double priorities, with decrease-key.
+ * Items and keys live in primitive arrays; nothing is allocated after construction.
+ * Equal keys are ordered by the lower item, so pop order is deterministic.
+ */
+public final class IndexedMinHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] key;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int item) {
+        return position[item] >= 0;
+    }
+
+    /** Inserts the item, or lowers its key if it is already queued with a higher one. */
+    public void pushOrDecrease(int item, double k) {
+        int p = position[item];
+        if (p < 0) {
+            p = size++;
+            heap[p] = item;
+            position[item] = p;
+            key[item] = k;
+            siftUp(p);
+        } else if (k < key[item]) {
+            key[item] = k;
+            siftUp(p);
+        }
+    }
+
+    /** Removes and returns the item with the smallest key. */
+    public int pop() {
+        int top = heap[0];
+        position[top] = -1;
+        int last = heap[--size];
+        if (size > 0) {
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) position[heap[i]] = -1;
+        size = 0;
+    }
+
+    private boolean less(int a, int b) {
+        return key[a] < key[b] || (key[a] == key[b] && a < b);
+    }
+
+    private void siftUp(int p) {
+        int item = heap[p];
+        while (p > 0) {
+            int parent = (p - 1) >>> 1;
+            int up = heap[parent];
+            if (!less(item, up)) break;
+            heap[p] = up;
+            position[up] = p;
+            p = parent;
+        }
+        heap[p] = item;
+        position[item] = p;
+    }
+
+    private void siftDown(int p) {
+        int item = heap[p];
+        int half = size >>> 1;
+        while (p < half) {
+            int c = 2 * p + 1;
+            int r = c + 1;
+            if (r < size && less(heap[r], heap[c])) c = r;
+            if (!less(heap[c], item)) break;
+            heap[p] = heap[c];
+            position[heap[p]] = p;
+            p = c;
+        }
+        heap[p] = item;
+        position[item] = p;
+    }
+}
@@ -0,0 +1,57 @@
+package demo.amhsdatagen.layout;
+
+/**
+ * What one save of the output changed, for consumers that keep state across saves
+ * (see {@link CheckIndex}). It covers the edits the pipeline makes to an existing layout:
+ * appending lines, removing lines and replacing the station list. Saves that change anything
+ * else, e.g. a fresh generation, carry no delta, and consumers rebuild from scratch.
+ *
+ * Removals apply first, then appended lines, then stations.
+ */
+public final class LayoutDelta {
+
+    private static final int[] NONE = new int[0];
+
+    private final int baseLineCount;
+    private final int[] removedLines;
+    private final LayoutGraph added;
+    private final boolean replacesStations;
+
+    private LayoutDelta(int baseLineCount, int[] removedLines, LayoutGraph added, boolean replacesStations) {
+        this.baseLineCount = baseLineCount;
+        this.removedLines = removedLines;
+        this.added = added;
+        this.replacesStations = replacesStations;
+    }
+
+    /**
+     * Lines firstLine.. of the layout were appended, and the lines before them were saved as
+     * they are (the layout must have been loaded from the saved output, not rebuilt).
+     */
+    public static LayoutDelta appendedLines(LayoutGraph layout, int firstLine) {
+        // no address table here: the copied lines keep their endpoint ids and positions as saved
+        LayoutGraph lines = new LayoutGraph(0, layout.lineCount() - firstLine);
+        for (int i = firstLine; i < layout.lineCount(); i++) lines.appendLine(layout, i);
+        return new LayoutDelta(firstLine, NONE, lines, false);
+    }
+
+    /** The lines at these indexes (ascending) were removed from a layout of lineCount lines. */
+    public static LayoutDelta removedLines(int lineCount, int[] indexes) {
+        return new LayoutDelta(lineCount, indexes.clone(), new LayoutGraph(0, 0), false);
+    }
+
+    /** The station list was replaced by the stations of this layout (its other parts are ignored). */
+    public static LayoutDelta replacedStations(LayoutGraph stations) {
+        return new LayoutDelta(-1, NONE, stations, true);
+    }
+
+    /** Number of lines the saved layout had before this change, or -1 when it does not matter. */
+    public int baseLineCount() { return baseLineCount; }
+
+    public int[] removedLines() { return removedLines.clone(); }
+
+    /** Appended lines, and the new stations when {@link #replacesStations()}. */
+    public LayoutGraph added() { return added; }
+
+    public boolean replacesStations() { return replacesStations; }
+}
@@ -0,0 +1,413 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory layout shared by the pipeline stages (generate, add-lines, stations, check, routing).
+ *
+ * Addresses, lines and stations are stored as struct-of-arrays. Lines refer to addresses by
+ * dense index. Names are derived on demand ("ADDR_" + id, "LINE_" + from + "_" + to);
+ * only names that differ from the derived form are kept, in small side maps. The same goes for
+ * line end positions that disagree with the address table and for lines whose endpoint id is
+ * not in the address table.
+ *
+ * The model also keeps what a layout read from the output lacks, so that writing it back and
+ * reading it again gives the same model (the layout check relies on this): duplicate address
+ * ids stay separate entries, a null name passed in stays absent (no name field, rather than the
+ * derived one), and a line stored without fromPos/toPos stays without them.
+ */
+public final class LayoutGraph {
+
+    // addresses
+    private int addressCount;
+    private long[] addressId;
+    private double[] x;
+    private double[] y;
+    private double[] z;
+    private final LongIntHashMap addressIndex;
+    private final Map<Integer, String> addressNames = new HashMap<>();
+    private final Map<Integer, Long> addressNumbers = new HashMap<>();
+
+    // lines
+    private int lineCount;
+    private long[] lineId;
+    private int[] from;
+    private int[] to;
+    private final BitSet curve = new BitSet();
+    private final Map<Integer, String> lineNames = new HashMap<>();
+    private final Map<Integer, double[]> linePositions = new HashMap<>();
+    // lines stored without fromPos/toPos: their ends are where their addresses are
+    private final BitSet noLinePositions = new BitSet();
+    private final Map<Integer, long[]> detachedEndpoints = new HashMap<>();
+
+    // stations
+    private boolean stationsPresent;
+    private int stationCount;
+    private long[] stationId = new long[0];
+    private double[] sx = new double[0];
+    private double[] sy = new double[0];
+    private double[] sz = new double[0];
+    private String[] stationName = new String[0];
+    private String[] stationType = new String[0];
+    private String[] stationPort = new String[0];
+
+    public LayoutGraph() {
+        this(1024, 1024);
+    }
+
+    public LayoutGraph(int expectedAddresses, int expectedLines) {
+        int a = Math.max(expectedAddresses, 16);
+        int l = Math.max(expectedLines, 16);
+        addressId = new long[a];
+        x = new double[a];
+        y = new double[a];
+        z = new double[a];
+        addressIndex = new LongIntHashMap(a);
+        lineId = new long[l];
+        from = new int[l];
+        to = new int[l];
+    }
+
+    // ---------------------------------------------------------------- addresses
+
+    /** Adds an address whose number equals its id and whose name is the derived one. */
+    public int addAddress(long id, double px, double py, double pz) {
+        if (addressCount == addressId.length) growAddresses();
+        int i = addressCount++;
+        addressId[i] = id;
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+        addressIndex.putIfAbsent(id, i);
+        return i;
+    }
+
+    /** Adds an address as stored in the output; a null name stays absent. */
+    public int addAddress(long id, long address, String name, double px, double py, double pz) {
+        int i = addAddress(id, px, py, pz);
+        if (address != id) addressNumbers.put(i, address);
+        if (name == null || !name.equals(defaultAddressName(id))) addressNames.put(i, name);
+        return i;
+    }
+
+    public int addressCount() { return addressCount; }
+    public long addressId(int i) { return addressId[i]; }
+    public double x(int i) { return x[i]; }
+    public double y(int i) { return y[i]; }
+    public double z(int i) { return z[i]; }
+
+    public long addressNumber(int i) {
+        Long n = addressNumbers.get(i);
+        return n != null ? n : addressId[i];
+    }
+
+    /** The address name, or null when the address has none. */
+    public String addressName(int i) {
+        String n = addressNames.get(i);
+        return n != null || addressNames.containsKey(i) ? n : defaultAddressName(addressId[i]);
+    }
+
+    /** Index of the first address with this id, or -1. */
+    public int indexOf(long id) {
+        return addressIndex.get(id);
+    }
+
+    // ---------------------------------------------------------------- lines
+
+    /** Adds a line between two address indices, with the derived name and address positions. */
+    public int addLine(long id, int fromIndex, int toIndex, boolean isCurve) {
+        if (lineCount == lineId.length) growLines();
+        int i = lineCount++;
+        lineId[i] = id;
+        from[i] = fromIndex;
+        to[i] = toIndex;
+        if (isCurve) curve.set(i);
+        return i;
+    }
+
+    /** Adds a line between two address indices; a null name stays absent. */
+    public int addLine(long id, String name, int fromIndex, int toIndex, boolean isCurve) {
+        int i = addLine(id, fromIndex, toIndex, isCurve);
+        nameLine(i, name);
+        return i;
+    }
+
+    /**
+     * Adds a line as stored in the output JSON. Endpoint ids are resolved to address indices;
+     * positions and names are only kept when they differ from what the address table implies.
+     * A null name stays absent.
+     */
+    public int addLine(long id, String name, long fromAddress, long toAddress,
+                       double fx, double fy, double fz, double tx, double ty, double tz, boolean isCurve) {
+        int i = addLine(id, fromAddress, toAddress, new double[] {fx, fy, fz, tx, ty, tz}, isCurve);
+        nameLine(i, name);
+        return i;
+    }
+
+    /** Adds a line stored without fromPos/toPos (its ends are where its addresses are). */
+    public int addLineWithoutPositions(long id, String name, long fromAddress, long toAddress, boolean isCurve) {
+        int i = addLine(id, fromAddress, toAddress, null, isCurve);
+        nameLine(i, name);
+        return i;
+    }
+
+    /** Appends line i of another layout as it is there, resolving its endpoint ids against this one. */
+    public int appendLine(LayoutGraph source, int i) {
+        double[] pos = null;
+        if (source.hasLinePositions(i)) {
+            pos = new double[] {source.fromX(i), source.fromY(i), source.fromZ(i), source.toX(i), source.toY(i), source.toZ(i)};
+        }
+        int j = addLine(source.lineId(i), source.lineFromAddress(i), source.lineToAddress(i), pos, source.isCurve(i));
+        // copy the name state as is: derived (no entry), absent (null entry) or explicit
+        if (source.lineNames.containsKey(i)) lineNames.put(j, source.lineNames.get(i));
+        return j;
+    }
+
+    /** Drops the marked lines, keeping the others in order. */
+    public void removeLines(BitSet drop) {
+        if (drop.nextSetBit(0) < 0 || drop.nextSetBit(0) >= lineCount) return;
+        int[] moved = new int[lineCount];
+        BitSet curves = new BitSet();
+        BitSet noPositions = new BitSet();
+        int n = 0;
+        for (int i = 0; i < lineCount; i++) {
+            if (drop.get(i)) {
+                moved[i] = -1;
+                continue;
+            }
+            lineId[n] = lineId[i];
+            from[n] = from[i];
+            to[n] = to[i];
+            if (curve.get(i)) curves.set(n);
+            if (noLinePositions.get(i)) noPositions.set(n);
+            moved[i] = n++;
+        }
+        lineCount = n;
+        curve.clear();
+        curve.or(curves);
+        noLinePositions.clear();
+        noLinePositions.or(noPositions);
+        remap(lineNames, moved);
+        remap(linePositions, moved);
+        remap(detachedEndpoints, moved);
+    }
+
+    public int lineCount() { return lineCount; }
+    public long lineId(int i) { return lineId[i]; }
+    public boolean isCurve(int i) { return curve.get(i); }
+
+    /** Address index of the line start, or -1 when the id is not in the address table. */
+    public int lineFrom(int i) { return from[i]; }
+
+    /** Address index of the line end, or -1 when the id is not in the address table. */
+    public int lineTo(int i) { return to[i]; }
+
+    public long lineFromAddress(int i) {
+        int f = from[i];
+        return f >= 0 ? addressId[f] : detachedEndpoints.get(i)[0];
+    }
+
+    public long lineToAddress(int i) {
+        int t = to[i];
+        return t >= 0 ? addressId[t] : detachedEndpoints.get(i)[1];
+    }
+
+    /** The line name, or null when the line has none. */
+    public String lineName(int i) {
+        String n = lineNames.get(i);
+        return n != null || lineNames.containsKey(i) ? n : defaultLineName(i);
+    }
+
+    /** False when the line was stored without fromPos/toPos; its positions are then its addresses'. */
+    public boolean hasLinePositions(int i) {
+        return !noLinePositions.get(i);
+    }
+
+    public double fromX(int i) { return linePos(i, 0); }
+    public double fromY(int i) { return linePos(i, 1); }
+    public double fromZ(int i) { return linePos(i, 2); }
+    public double toX(int i) { return linePos(i, 3); }
+    public double toY(int i) { return linePos(i, 4); }
+    public double toZ(int i) { return linePos(i, 5); }
+
+    /** True when the line's stored end positions are exactly those of its addresses. */
+    public boolean lineMatchesAddresses(int i) {
+        return !linePositions.containsKey(i);
+    }
+
+    /** Largest line id, or the given floor when there are no lines above it. */
+    public long maxLineId(long floor) {
+        long max = floor;
+        for (int i = 0; i < lineCount; i++) if (lineId[i] > max) max = lineId[i];
+        return max;
+    }
+
+    // ---------------------------------------------------------------- stations
+
+    public int addStation(long id, String name, String type, String port, double px, double py, double pz) {
+        stationsPresent = true;
+        if (stationCount == stationId.length) growStations();
+        int i = stationCount++;
+        stationId[i] = id;
+        stationName[i] = name;
+        stationType[i] = type;
+        stationPort[i] = port;
+        sx[i] = px;
+        sy[i] = py;
+        sz[i] = pz;
+        return i;
+    }
+
+    /** Drops all stations but keeps a (now empty) stations section. */
+    public void clearStations() {
+        stationsPresent = true;
+        Arrays.fill(stationName, 0, stationCount, null);
+        Arrays.fill(stationType, 0, stationCount, null);
+        Arrays.fill(stationPort, 0, stationCount, null);
+        stationCount = 0;
+    }
+
+    /** Marks that the layout has a stations section even if it is empty. */
+    public void markStationsPresent() {
+        stationsPresent = true;
+    }
+
+    public boolean hasStations() { return stationsPresent; }
+    public int stationCount() { return stationCount; }
+    public long stationId(int i) { return stationId[i]; }
+    public String stationName(int i) { return stationName[i]; }
+    public String stationType(int i) { return stationType[i]; }
+    public String stationPort(int i) { return stationPort[i]; }
+    public double stationX(int i) { return sx[i]; }
+    public double stationY(int i) { return sy[i]; }
+    public double stationZ(int i) { return sz[i]; }
+
+    // ---------------------------------------------------------------- copy / sizing
+
+    /** Deep copy, so a caller can modify the layout without touching a shared instance. */
+    public LayoutGraph copy() {
+        LayoutGraph c = new LayoutGraph(addressCount, lineCount);
+        for (int i = 0; i < addressCount; i++) c.addAddress(addressId[i], x[i], y[i], z[i]);
+        c.addressNames.putAll(addressNames);
+        c.addressNumbers.putAll(addressNumbers);
+        System.arraycopy(lineId, 0, c.lineId, 0, lineCount);
+        System.arraycopy(from, 0, c.from, 0, lineCount);
+        System.arraycopy(to, 0, c.to, 0, lineCount);
+        c.lineCount = lineCount;
+        c.curve.or(curve);
+        c.lineNames.putAll(lineNames);
+        c.noLinePositions.or(noLinePositions);
+        for (Map.Entry<Integer, double[]> e : linePositions.entrySet()) c.linePositions.put(e.getKey(), e.getValue().clone());
+        for (Map.Entry<Integer, long[]> e : detachedEndpoints.entrySet()) c.detachedEndpoints.put(e.getKey(), e.getValue().clone());
+        c.stationsPresent = stationsPresent;
+        for (int i = 0; i < stationCount; i++) {
+            c.addStation(stationId[i], stationName[i], stationType[i], stationPort[i], sx[i], sy[i], sz[i]);
+        }
+        return c;
+    }
+
+    /** Approximate heap footprint in bytes (arrays, id index and side maps). */
+    public long estimatedBytes() {
+        long bytes = 256;
+        bytes += (long) addressId.length * (8 + 8 + 8 + 8);
+        bytes += (long) addressIndex.size() * 2 * 12;
+        bytes += (long) lineId.length * (8 + 4 + 4) + (curve.size() + noLinePositions.size()) / 8;
+        bytes += (long) stationId.length * (8 + 8 + 8 + 8 + 3 * 4);
+        bytes += (long) stationCount * 3 * 56;
+        bytes += (long) (addressNames.size() + lineNames.size()) * 120;
+        bytes += (long) addressNumbers.size() * 64;
+        bytes += (long) (linePositions.size() + detachedEndpoints.size()) * 120;
+        return bytes;
+    }
+
+    // ---------------------------------------------------------------- internals
+
+    /** The line's stored end positions, or null when they are those of its addresses. Do not modify. */
+    double[] linePositions(int i) {
+        return linePositions.get(i);
+    }
+
+    double[] xs() { return x; }
+    double[] ys() { return y; }
+    double[] zs() { return z; }
+
+    private static String defaultAddressName(long id) {
+        return "ADDR_" + id;
+    }
+
+    private String defaultLineName(int i) {
+        return "LINE_" + lineFromAddress(i) + "_" + lineToAddress(i);
+    }
+
+    // pos null: the line has no positions of its own
+    private int addLine(long id, long fromAddress, long toAddress, double[] pos, boolean isCurve) {
+        int fi = indexOf(fromAddress);
+        int ti = indexOf(toAddress);
+        int i = addLine(id, fi, ti, isCurve);
+        if (fi < 0 || ti < 0) detachedEndpoints.put(i, new long[] {fromAddress, toAddress});
+        if (pos == null) {
+            noLinePositions.set(i);
+        } else if (fi < 0 || ti < 0 || !samePos(fi, pos[0], pos[1], pos[2]) || !samePos(ti, pos[3], pos[4], pos[5])) {
+            linePositions.put(i, pos);
+        }
+        return i;
+    }
+
+    private void nameLine(int i, String name) {
+        if (name == null || !name.equals(defaultLineName(i))) lineNames.put(i, name);
+    }
+
+    private static <V> void remap(Map<Integer, V> map, int[] moved) {
+        if (map.isEmpty()) return;
+        Map<Integer, V> kept = new HashMap<>();
+        for (Map.Entry<Integer, V> e : map.entrySet()) {
+            int k = e.getKey() < moved.length ? moved[e.getKey()] : -1;
+            if (k >= 0) kept.put(k, e.getValue());
+        }
+        map.clear();
+        map.putAll(kept);
+    }
+
+    private boolean samePos(int a, double px, double py, double pz) {
+        return x[a] == px && y[a] == py && z[a] == pz;
+    }
+
+    // a detached end without positions of its own has none at all; it reads as 0
+    private double linePos(int i, int k) {
+        double[] p = linePositions.get(i);
+        if (p != null) return p[k];
+        int a = k < 3 ? from[i] : to[i];
+        if (a < 0) return 0.0;
+        int c = k % 3;
+        return c == 0 ? x[a] : c == 1 ? y[a] : z[a];
+    }
+
+    private void growAddresses() {
+        int cap = addressId.length * 2;
+        addressId = Arrays.copyOf(addressId, cap);
+        x = Arrays.copyOf(x, cap);
+        y = Arrays.copyOf(y, cap);
+        z = Arrays.copyOf(z, cap);
+    }
+
+    private void growLines() {
+        int cap = lineId.length * 2;
+        lineId = Arrays.copyOf(lineId, cap);
+        from = Arrays.copyOf(from, cap);
+        to = Arrays.copyOf(to, cap);
+    }
+
+    private void growStations() {
+        int cap = Math.max(16, stationId.length * 2);
+        stationId = Arrays.copyOf(stationId, cap);
+        stationName = Arrays.copyOf(stationName, cap);
+        stationType = Arrays.copyOf(stationType, cap);
+        stationPort = Arrays.copyOf(stationPort, cap);
+        sx = Arrays.copyOf(sx, cap);
+        sy = Arrays.copyOf(sy, cap);
+        sz = Arrays.copyOf(sz, cap);
+    }
+}
@@ -0,0 +1,260 @@
+package demo.amhsdatagen.layout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming conversion between {@link LayoutGraph} and the layout_seed.output JSON document
+ * ({ addresses: [...], lines: [...], stations: [...] }).
+ *
+ * Writing a graph and reading it back gives the same graph: names that are absent stay absent
+ * and lines without fromPos/toPos are written without them. Reading drops array elements that
+ * are not objects, so the first save of a document that had any normalizes it.
+ */
+public final class LayoutJson {
+
+    private LayoutJson() {}
+
+    /**
+     * Pull-parses the output document straight into a {@link LayoutGraph}; no JSON tree is built.
+     * Lines may come before the address table in the document; they are then held until the
+     * addresses have been read.
+     */
+    public static LayoutGraph read(Reader in, JsonFactory factory) throws IOException {
+        try (JsonParser p = factory.createParser(in)) {
+            LayoutGraph g = new LayoutGraph();
+            if (p.nextToken() != JsonToken.START_OBJECT) return g;
+            boolean addressesRead = false;
+            List<LineRecord> pending = null;
+            LineRecord line = new LineRecord();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() != JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (field.equals("addresses")) {
+                    readAddresses(p, g);
+                    addressesRead = true;
+                } else if (field.equals("lines")) {
+                    if (!addressesRead) {
+                        // lines before addresses: hold them until the address table is known
+                        pending = new ArrayList<>();
+                        while (nextElement(p)) {
+                            LineRecord r = new LineRecord();
+                            readLine(p, r);
+                            pending.add(r);
+                        }
+                    } else {
+                        while (nextElement(p)) {
+                            readLine(p, line);
+                            line.addTo(g);
+                        }
+                    }
+                } else if (field.equals("stations")) {
+                    readStations(p, g);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (pending != null) {
+                for (LineRecord r : pending) r.addTo(g);
+            }
+            return g;
+        }
+    }
+
+    private static void readAddresses(JsonParser p, LayoutGraph g) throws IOException {
+        double[] pos = new double[3];
+        while (nextElement(p)) {
+            long id = 0;
+            Long address = null;
+            String name = null;
+            pos[0] = pos[1] = pos[2] = 0.0;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                JsonToken t = p.nextToken();
+                switch (f) {
+                    case "id" -> id = p.getValueAsLong();
+                    case "address" -> address = t == JsonToken.VALUE_NULL ? null : p.getValueAsLong();
+                    case "name" -> name = t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                    case "pos" -> readPos(p, pos);
+                    default -> p.skipChildren();
+                }
+            }
+            g.addAddress(id, address != null ? address : id, name, pos[0], pos[1], pos[2]);
+        }
+    }
+
+    private static void readLine(JsonParser p, LineRecord r) throws IOException {
+        r.reset();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String f = p.currentName();
+            JsonToken t = p.nextToken();
+            switch (f) {
+                case "id" -> r.id = p.getValueAsLong();
+                case "name" -> r.name = t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                case "fromAddress" -> r.from = p.getValueAsLong();
+                case "toAddress" -> r.to = p.getValueAsLong();
+                case "fromPos" -> r.hasFromPos = readPos(p, r.fromPos);
+                case "toPos" -> r.hasToPos = readPos(p, r.toPos);
+                case "curve" -> r.curve = p.getValueAsBoolean(false);
+                default -> p.skipChildren();
+            }
+        }
+    }
+
+    private static void readStations(JsonParser p, LayoutGraph g) throws IOException {
+        g.markStationsPresent();
+        double[] pos = new double[3];
+        while (nextElement(p)) {
+            long id = 0;
+            String name = null, type = null, port = null;
+            pos[0] = pos[1] = pos[2] = 0.0;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                JsonToken t = p.nextToken();
+                switch (f) {
+                    case "id" -> id = p.getValueAsLong();
+                    case "name" -> name = t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                    case "type" -> type = t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                    case "port" -> port = t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                    case "pos" -> readPos(p, pos);
+                    default -> p.skipChildren();
+                }
+            }
+            g.addStation(id, name, type, port, pos[0], pos[1], pos[2]);
+        }
+    }
+
+    // Advances to the next object element of the current array, skipping non-object elements
+    private static boolean nextElement(JsonParser p) throws IOException {
+        JsonToken t;
+        while ((t = p.nextToken()) != null && t != JsonToken.END_ARRAY) {
+            if (t == JsonToken.START_OBJECT) return true;
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    // Reads {x, y, z} at the current START_OBJECT; anything else is skipped, leaves zeros and returns false
+    private static boolean readPos(JsonParser p, double[] out) throws IOException {
+        out[0] = out[1] = out[2] = 0.0;
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return false;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String f = p.currentName();
+            p.nextToken();
+            switch (f) {
+                case "x" -> out[0] = p.getValueAsDouble();
+                case "y" -> out[1] = p.getValueAsDouble();
+                case "z" -> out[2] = p.getValueAsDouble();
+                default -> p.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private static final class LineRecord {
+        long id;
+        String name;
+        long from;
+        long to;
+        final double[] fromPos = new double[3];
+        final double[] toPos = new double[3];
+        boolean hasFromPos;
+        boolean hasToPos;
+        boolean curve;
+
+        void reset() {
+            id = from = to = 0;
+            name = null;
+            hasFromPos = hasToPos = curve = false;
+            fromPos[0] = fromPos[1] = fromPos[2] = 0.0;
+            toPos[0] = toPos[1] = toPos[2] = 0.0;
+        }
+
+        // a line counts as having positions only with both of them
+        void addTo(LayoutGraph g) {
+            if (!hasFromPos || !hasToPos) {
+                g.addLineWithoutPositions(id, name, from, to, curve);
+                return;
+            }
+            g.addLine(id, name, from, to, fromPos[0], fromPos[1], fromPos[2], toPos[0], toPos[1], toPos[2], curve);
+        }
+    }
+
+    /**
+     * Streams the layout as JSON through the generator, element by element, without building
+     * an intermediate tree. Field names and order match the tree form.
+     */
+    public static void write(LayoutGraph g, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("addresses");
+        for (int i = 0; i < g.addressCount(); i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("id", g.addressId(i));
+            gen.writeNumberField("address", g.addressNumber(i));
+            if (g.addressName(i) != null) gen.writeStringField("name", g.addressName(i));
+            writePos(gen, "pos", g.x(i), g.y(i), g.z(i));
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeArrayFieldStart("lines");
+        for (int i = 0; i < g.lineCount(); i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("id", g.lineId(i));
+            if (g.lineName(i) != null) gen.writeStringField("name", g.lineName(i));
+            gen.writeNumberField("fromAddress", g.lineFromAddress(i));
+            gen.writeNumberField("toAddress", g.lineToAddress(i));
+            if (g.hasLinePositions(i)) {
+                writePos(gen, "fromPos", g.fromX(i), g.fromY(i), g.fromZ(i));
+                writePos(gen, "toPos", g.toX(i), g.toY(i), g.toZ(i));
+            }
+            gen.writeBooleanField("curve", g.isCurve(i));
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        if (g.hasStations()) {
+            gen.writeArrayFieldStart("stations");
+            for (int i = 0; i < g.stationCount(); i++) {
+                gen.writeStartObject();
+                gen.writeNumberField("id", g.stationId(i));
+                if (g.stationName(i) != null) gen.writeStringField("name", g.stationName(i));
+                if (g.stationType(i) != null) gen.writeStringField("type", g.stationType(i));
+                if (g.stationPort(i) != null) gen.writeStringField("port", g.stationPort(i));
+                writePos(gen, "pos", g.stationX(i), g.stationY(i), g.stationZ(i));
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    /** Streams the layout to a character sink; compact unless pretty is requested. */
+    public static void write(LayoutGraph g, Writer out, JsonFactory factory, boolean pretty) throws IOException {
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (pretty) gen.useDefaultPrettyPrinter();
+            write(g, gen);
+        }
+    }
+
+    private static void writePos(JsonGenerator gen, String field, double x, double y, double z) throws IOException {
+        gen.writeObjectFieldStart(field);
+        gen.writeNumberField("x", x);
+        gen.writeNumberField("y", y);
+        gen.writeNumberField("z", z);
+        gen.writeEndObject();
+    }
+}
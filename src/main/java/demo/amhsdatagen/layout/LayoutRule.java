@@ -0,0 +1,39 @@
+package demo.amhsdatagen.layout;
+
+import java.util.BitSet;
+
+/**
+ * One validation rule over a {@link LayoutGraph}.
+ *
+ * A rule splits its work into a number of parts chosen by the caller and checks each part
+ * independently; the partial findings are then merged. A rule decides what a part is: rules
+ * that look for repeated keys (duplicate ids, overlapping lines) own a slice of the key hash
+ * space, so every occurrence of a key lands in the same part, while per-line rules take a
+ * contiguous range of lines. Parts may run on different threads and must not write shared state.
+ */
+public interface LayoutRule {
+
+    /** What the indexes in {@link Finding#flagged} refer to. */
+    enum Target { ADDRESS, LINE }
+
+    String id();
+
+    Target target();
+
+    Finding check(LayoutGraph layout, int part, int parts);
+
+    /**
+     * A rule's result: a count (whose meaning the rule defines, e.g. distinct duplicated keys)
+     * and the indexes of the elements it flags, in the rule's target table.
+     */
+    final class Finding {
+        public long count;
+        public final BitSet flagged = new BitSet();
+
+        public Finding merge(Finding other) {
+            count += other.count;
+            flagged.or(other.flagged);
+            return this;
+        }
+    }
+}
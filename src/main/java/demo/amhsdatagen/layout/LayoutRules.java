@@ -0,0 +1,302 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The built-in layout validation rules.
+ *
+ * Duplicate, overlap and degree rules partition by key hash: each part scans the whole column
+ * but only keeps the keys it owns, so no part ever needs another part's table and the partial
+ * counts simply add up. Per-line rules partition by line range.
+ *
+ * Duplicate rules count distinct repeated keys and flag every occurrence after the first;
+ * the overlap rule flags every line whose endpoints (in either direction) were connected by an
+ * earlier line, which is exactly the set of lines a compaction drops.
+ */
+public final class LayoutRules {
+
+    public static final String DUPLICATE_ADDRESS_IDS = "duplicate-address-ids";
+    public static final String DUPLICATE_ADDRESS_NAMES = "duplicate-address-names";
+    public static final String DUPLICATE_POSITIONS = "duplicate-positions";
+    public static final String DUPLICATE_LINE_IDS = "duplicate-line-ids";
+    public static final String OVERLAPPING_LINES = "overlapping-lines";
+    public static final String HIGH_DEGREE = "high-degree";
+    public static final String DANGLING_ENDPOINTS = "dangling-endpoints";
+    public static final String ZERO_LENGTH_LINES = "zero-length-lines";
+    public static final String POSITION_MISMATCH = "position-mismatch";
+
+    /** Returned by {@link #positionKey} when the position needs a string key. */
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    private static final int TENTHS_BITS = 21;
+    private static final long TENTHS_LIMIT = 1L << (TENTHS_BITS - 1);
+    private static final long TENTHS_MASK = (1L << TENTHS_BITS) - 1;
+    // below this magnitude the fast rounding path is exact away from ties
+    private static final double FAST_LIMIT = 1e8;
+    private static final double TIE_MARGIN = 1e-6;
+
+    private LayoutRules() {
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        LayoutRule.Finding run(LayoutGraph c, int part, int parts);
+    }
+
+    private static LayoutRule rule(String id, LayoutRule.Target target, Check check) {
+        return new LayoutRule() {
+            @Override public String id() { return id; }
+            @Override public Target target() { return target; }
+            @Override public Finding check(LayoutGraph layout, int part, int parts) { return check.run(layout, part, parts); }
+        };
+    }
+
+    public static LayoutRule duplicateAddressIds() {
+        return rule(DUPLICATE_ADDRESS_IDS, LayoutRule.Target.ADDRESS, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            LongHashSet seen = new LongHashSet(c.addressCount() / parts);
+            LongHashSet dup = new LongHashSet();
+            for (int i = 0, n = c.addressCount(); i < n; i++) {
+                long id = c.addressId(i);
+                if (owner(LongHashSet.mix(id), parts) != part || seen.add(id)) continue;
+                dup.add(id);
+                f.flagged.set(i);
+            }
+            f.count = dup.size();
+            return f;
+        });
+    }
+
+    /** Names compare as strings; a missing name counts as "". */
+    public static LayoutRule duplicateAddressNames() {
+        return rule(DUPLICATE_ADDRESS_NAMES, LayoutRule.Target.ADDRESS, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            Set<String> seen = new HashSet<>();
+            Set<String> dup = new HashSet<>();
+            for (int i = 0, n = c.addressCount(); i < n; i++) {
+                String name = c.addressName(i);
+                if (name == null) name = "";
+                if (owner(LongHashSet.mix(name.hashCode()), parts) != part || seen.add(name)) continue;
+                dup.add(name);
+                f.flagged.set(i);
+            }
+            f.count = dup.size();
+            return f;
+        });
+    }
+
+    /** Positions compare by their "%.1f" rendering (see {@link #positionKey}). */
+    public static LayoutRule duplicatePositions() {
+        return rule(DUPLICATE_POSITIONS, LayoutRule.Target.ADDRESS, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            LongHashSet seen = new LongHashSet(c.addressCount() / parts);
+            LongHashSet dup = new LongHashSet();
+            Set<String> seenOther = new HashSet<>();
+            Set<String> dupOther = new HashSet<>();
+            for (int i = 0, n = c.addressCount(); i < n; i++) {
+                long key = positionKey(c.x(i), c.y(i), c.z(i));
+                if (key != NO_KEY) {
+                    if (owner(LongHashSet.mix(key), parts) != part || seen.add(key)) continue;
+                    dup.add(key);
+                } else {
+                    String s = String.format("(%.1f,%.1f,%.1f)", c.x(i), c.y(i), c.z(i));
+                    if (owner(LongHashSet.mix(s.hashCode()), parts) != part || seenOther.add(s)) continue;
+                    dupOther.add(s);
+                }
+                f.flagged.set(i);
+            }
+            f.count = dup.size() + dupOther.size();
+            return f;
+        });
+    }
+
+    public static LayoutRule duplicateLineIds() {
+        return rule(DUPLICATE_LINE_IDS, LayoutRule.Target.LINE, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            LongHashSet seen = new LongHashSet(c.lineCount() / parts);
+            LongHashSet dup = new LongHashSet();
+            for (int i = 0, n = c.lineCount(); i < n; i++) {
+                long id = c.lineId(i);
+                if (owner(LongHashSet.mix(id), parts) != part || seen.add(id)) continue;
+                dup.add(id);
+                f.flagged.set(i);
+            }
+            f.count = dup.size();
+            return f;
+        });
+    }
+
+    /** Lines that repeat an earlier line's connection, in the same or the reverse direction. */
+    public static LayoutRule overlappingLines() {
+        return rule(OVERLAPPING_LINES, LayoutRule.Target.LINE, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            LongIntHashMap nodes = new LongIntHashMap(c.lineCount() / parts);
+            LongHashSet edges = new LongHashSet(c.lineCount() / parts);
+            for (int i = 0, n = c.lineCount(); i < n; i++) {
+                long a = c.lineFromAddress(i), b = c.lineToAddress(i);
+                long lo = Math.min(a, b), hi = Math.max(a, b);
+                if (owner(LongHashSet.mix(lo * 0x9E3779B97F4A7C15L + hi), parts) != part) continue;
+                if (!edges.add(EdgeIndex.key(node(nodes, lo), node(nodes, hi)))) f.flagged.set(i);
+            }
+            f.count = f.flagged.cardinality();
+            return f;
+        });
+    }
+
+    /**
+     * Line endpoints used by at least minDegree lines, not counting the excluded lines (e.g. the
+     * overlaps that will be removed). Counts endpoints whether or not they are in the address
+     * table, and flags the ones that are.
+     */
+    public static LayoutRule highDegree(int minDegree, BitSet excludedLines) {
+        return rule(HIGH_DEGREE, LayoutRule.Target.ADDRESS, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            LongIntHashMap nodes = new LongIntHashMap(c.addressCount() / parts);
+            long[] address = new long[16];
+            int[] degree = new int[16];
+            for (int i = 0, n = c.lineCount(); i < n; i++) {
+                if (excludedLines != null && excludedLines.get(i)) continue;
+                for (int end = 0; end < 2; end++) {
+                    long a = end == 0 ? c.lineFromAddress(i) : c.lineToAddress(i);
+                    if (owner(LongHashSet.mix(a), parts) != part) continue;
+                    int k = node(nodes, a);
+                    if (k == degree.length) {
+                        degree = Arrays.copyOf(degree, k * 2);
+                        address = Arrays.copyOf(address, k * 2);
+                    }
+                    address[k] = a;
+                    degree[k]++;
+                }
+            }
+            for (int k = 0, n = nodes.size(); k < n; k++) {
+                if (degree[k] < minDegree) continue;
+                f.count++;
+                int at = c.indexOf(address[k]);
+                if (at >= 0) f.flagged.set(at);
+            }
+            return f;
+        });
+    }
+
+    /** Lines with an endpoint id that is not in the address table. */
+    public static LayoutRule danglingEndpoints() {
+        return rule(DANGLING_ENDPOINTS, LayoutRule.Target.LINE, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            for (int i = start(c.lineCount(), part, parts), end = start(c.lineCount(), part + 1, parts); i < end; i++) {
+                if (dangling(c, i)) f.flagged.set(i);
+            }
+            f.count = f.flagged.cardinality();
+            return f;
+        });
+    }
+
+    /**
+     * Lines that start and end at the same address, or whose two ends sit at the same point
+     * (the line's own positions if it has them, else its endpoints' positions).
+     */
+    public static LayoutRule zeroLengthLines() {
+        return rule(ZERO_LENGTH_LINES, LayoutRule.Target.LINE, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            for (int i = start(c.lineCount(), part, parts), end = start(c.lineCount(), part + 1, parts); i < end; i++) {
+                if (zeroLength(c, i)) f.flagged.set(i);
+            }
+            f.count = f.flagged.cardinality();
+            return f;
+        });
+    }
+
+    /** Lines whose own fromPos/toPos differ from their endpoint addresses' positions. */
+    public static LayoutRule positionMismatch() {
+        return rule(POSITION_MISMATCH, LayoutRule.Target.LINE, (c, part, parts) -> {
+            LayoutRule.Finding f = new LayoutRule.Finding();
+            for (int i = start(c.lineCount(), part, parts), end = start(c.lineCount(), part + 1, parts); i < end; i++) {
+                if (mismatched(c, i)) f.flagged.set(i);
+            }
+            f.count = f.flagged.cardinality();
+            return f;
+        });
+    }
+
+    // per-line predicates, shared with CheckIndex
+
+    static boolean dangling(LayoutGraph c, int i) {
+        return c.lineFrom(i) < 0 || c.lineTo(i) < 0;
+    }
+
+    static boolean zeroLength(LayoutGraph c, int i) {
+        if (c.lineFromAddress(i) == c.lineToAddress(i)) return true;
+        double[] p = c.linePositions(i);
+        if (p != null) return p[0] == p[3] && p[1] == p[4] && p[2] == p[5];
+        // the ends are at the addresses (both attached, or the line has no positions to compare)
+        int fa = c.lineFrom(i), ta = c.lineTo(i);
+        return fa >= 0 && ta >= 0 && c.x(fa) == c.x(ta) && c.y(fa) == c.y(ta) && c.z(fa) == c.z(ta);
+    }
+
+    static boolean mismatched(LayoutGraph c, int i) {
+        double[] p = c.linePositions(i);
+        if (p == null) return false; // no positions, or the same as the addresses'
+        return differs(c, c.lineFrom(i), p, 0) || differs(c, c.lineTo(i), p, 3);
+    }
+
+    private static boolean differs(LayoutGraph c, int address, double[] p, int k) {
+        if (address < 0) return false; // dangling, reported by its own rule
+        return c.x(address) != p[k] || c.y(address) != p[k + 1] || c.z(address) != p[k + 2];
+    }
+
+    private static int owner(long hash, int parts) {
+        return parts == 1 ? 0 : (int) Long.remainderUnsigned(hash, parts);
+    }
+
+    private static int start(int n, int part, int parts) {
+        return (int) ((long) n * part / parts);
+    }
+
+    private static int node(LongIntHashMap nodes, long address) {
+        int k = nodes.get(address);
+        if (k >= 0) return k;
+        k = nodes.size();
+        nodes.put(address, k);
+        return k;
+    }
+
+    /** The three coordinates rounded to tenths and packed, or {@link #NO_KEY}. */
+    public static long positionKey(double x, double y, double z) {
+        long qx = tenths(x), qy = tenths(y), qz = tenths(z);
+        if (qx == NO_KEY || qy == NO_KEY || qz == NO_KEY) return NO_KEY;
+        return ((qx & TENTHS_MASK) << (2 * TENTHS_BITS)) | ((qy & TENTHS_MASK) << TENTHS_BITS) | (qz & TENTHS_MASK);
+    }
+
+    /**
+     * The value "%.1f" prints, in tenths (Formatter rounds the shortest decimal form half up).
+     * NO_KEY when it is out of the packed range or prints as "-0.0", which then needs the
+     * string key; the two key spaces never meet, so counts stay exact.
+     */
+    static long tenths(double v) {
+        double a = Math.abs(v);
+        long q;
+        if (a < FAST_LIMIT) {
+            double s = a * 10;
+            double floor = Math.floor(s);
+            double frac = s - floor;
+            if (Math.abs(frac - 0.5) > TIE_MARGIN) {
+                q = (long) floor + (frac > 0.5 ? 1 : 0);
+                if (q == 0 && Double.doubleToRawLongBits(v) < 0) return NO_KEY;
+                if (v < 0) q = -q;
+                return q >= TENTHS_LIMIT || q < -TENTHS_LIMIT ? NO_KEY : q;
+            }
+        }
+        // near a tie or large: let Formatter decide
+        String s = String.format(Locale.ROOT, "%.1f", v);
+        if (s.equals("-0.0")) return NO_KEY;
+        try {
+            q = Long.parseLong(s.replace(".", ""));
+        } catch (NumberFormatException e) {
+            return NO_KEY;
+        }
+        return q >= TENTHS_LIMIT || q < -TENTHS_LIMIT ? NO_KEY : q;
+    }
+}
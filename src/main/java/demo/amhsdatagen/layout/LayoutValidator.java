@@ -0,0 +1,65 @@
+package demo.amhsdatagen.layout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs {@link LayoutRule}s over a layout on a fork-join pool.
+ *
+ * Every rule is split into the same number of parts, and every (rule, part) pair is one task,
+ * so independent rules also run side by side. The partial findings of each rule are merged in
+ * part order. Small layouts run as a single part on the calling thread.
+ */
+public final class LayoutValidator {
+
+    // one part per this many elements (addresses or lines, whichever is larger)
+    private static final int ELEMENTS_PER_PART = 1 << 15;
+
+    private final ForkJoinPool pool;
+
+    public LayoutValidator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Findings by rule id, in rule order. */
+    public Map<String, LayoutRule.Finding> run(LayoutGraph layout, List<LayoutRule> rules) {
+        int elements = Math.max(layout.addressCount(), layout.lineCount());
+        int parts = Math.max(1, Math.min(pool.getParallelism(), elements / ELEMENTS_PER_PART));
+        Map<String, LayoutRule.Finding> findings = new LinkedHashMap<>();
+        if (parts == 1) {
+            for (LayoutRule rule : rules) findings.put(rule.id(), rule.check(layout, 0, 1));
+            return findings;
+        }
+
+        List<Callable<LayoutRule.Finding>> tasks = new ArrayList<>(rules.size() * parts);
+        for (LayoutRule rule : rules) {
+            for (int p = 0; p < parts; p++) {
+                int part = p;
+                tasks.add(() -> rule.check(layout, part, parts));
+            }
+        }
+        List<Future<LayoutRule.Finding>> results = pool.invokeAll(tasks);
+        try {
+            for (int r = 0; r < rules.size(); r++) {
+                LayoutRule.Finding merged = results.get(r * parts).get();
+                for (int p = 1; p < parts; p++) merged.merge(results.get(r * parts + p).get());
+                findings.put(rules.get(r).id(), merged);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("layout validation interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return findings;
+    }
+}
@@ -0,0 +1,93 @@
+package demo.amhsdatagen.layout;
+
+/**
+ * Open-addressing hash set of primitive longs (linear probing, no boxing).
+ */
+public final class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int cap = tableSize(expected);
+        keys = new long[cap];
+        mask = cap - 1;
+    }
+
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) return false;
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size > (mask + 1) * 3 / 4) rehash();
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) return hasEmptyKey;
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    private void rehash() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        mask = keys.length - 1;
+        for (long k : old) {
+            if (k == EMPTY) continue;
+            int i = slot(k);
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = k;
+        }
+    }
+
+    static int tableSize(int expected) {
+        int cap = 16;
+        while (cap * 3 / 4 < expected) cap <<= 1;
+        return cap;
+    }
+
+    // fmix64 finalizer from MurmurHash3
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
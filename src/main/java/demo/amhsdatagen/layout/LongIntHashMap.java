@@ -0,0 +1,114 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from primitive long keys to int values (e.g. address id to dense index).
+ */
+public final class LongIntHashMap {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expected) {
+        int cap = LongHashSet.tableSize(expected);
+        keys = new long[cap];
+        values = new int[cap];
+        mask = cap - 1;
+    }
+
+    /** Stores the value and returns the previous one, or -1 if the key was absent. */
+    public int put(long key, int value) {
+        if (key == EMPTY) {
+            int prev = hasEmptyKey ? emptyKeyValue : -1;
+            if (!hasEmptyKey) size++;
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return prev;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                int prev = values[i];
+                values[i] = value;
+                return prev;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (mask + 1) * 3 / 4) rehash();
+        return -1;
+    }
+
+    /** Stores the value only if the key is absent; returns the existing value or -1. */
+    public int putIfAbsent(long key, int value) {
+        if (containsKey(key)) return get(key);
+        put(key, value);
+        return -1;
+    }
+
+    public int get(long key) {
+        return getOrDefault(key, -1);
+    }
+
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == EMPTY) return hasEmptyKey ? emptyKeyValue : defaultValue;
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) return hasEmptyKey;
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private int slot(long key) {
+        return (int) LongHashSet.mix(key) & mask;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k == EMPTY) continue;
+            int i = slot(k);
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+
+/**
+ * Undirected routing graph over the line endpoints of a layout, in compressed-sparse-row form:
+ * the neighbours of node n are neighbours[offsets[n] .. offsets[n + 1]). Nodes are dense indices;
+ * {@link #address(int)} maps them back to the address ids used in the UDP log.
+ *
+ * Every line contributes both directions, in line order, so a breadth-first search visits
+ * neighbours in the same order as the former list-of-lists adjacency and finds the same paths.
+ * Each entry also carries the Euclidean length of its line (from the line's end positions),
+ * which weighted search minimises. Node positions are the address positions and feed the
+ * A* heuristic. The graph is immutable and can be shared; per-query state lives in {@link Search}.
+ */
+public final class RoutingGraph {
+
+    private final int[] nodeAddress;
+    private final LongIntHashMap nodeIndex;
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final double[] weight;
+    private final double[] nx;
+    private final double[] ny;
+    private final double[] nz;
+    // Scales the straight-line heuristic so it never exceeds an edge length (keeps A* admissible)
+    private final double heuristicScale;
+
+    private RoutingGraph(int[] nodeAddress, LongIntHashMap nodeIndex, int[] offsets, int[] neighbours,
+                         double[] weight, double[] nx, double[] ny, double[] nz, double heuristicScale) {
+        this.nodeAddress = nodeAddress;
+        this.nodeIndex = nodeIndex;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.weight = weight;
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        this.heuristicScale = heuristicScale;
+    }
+
+    /** Builds the graph from the lines of a layout; addresses without lines are not nodes. */
+    public static RoutingGraph fromLines(LayoutGraph layout) {
+        int lines = layout.lineCount();
+        LongIntHashMap index = new LongIntHashMap(Math.max(16, layout.addressCount()));
+        int[] address = new int[Math.max(16, layout.addressCount())];
+        double[] px = new double[address.length];
+        double[] py = new double[address.length];
+        double[] pz = new double[address.length];
+        int[] lineFrom = new int[lines];
+        int[] lineTo = new int[lines];
+        double[] lineLength = new double[lines];
+        int n = 0;
+        for (int l = 0; l < lines; l++) {
+            int a = (int) layout.lineFromAddress(l);
+            int b = (int) layout.lineToAddress(l);
+            int na = index.get(a);
+            if (na < 0) {
+                if (n == address.length) {
+                    address = Arrays.copyOf(address, n * 2);
+                    px = Arrays.copyOf(px, n * 2);
+                    py = Arrays.copyOf(py, n * 2);
+                    pz = Arrays.copyOf(pz, n * 2);
+                }
+                address[n] = a;
+                int ai = layout.lineFrom(l);
+                px[n] = ai >= 0 ? layout.x(ai) : layout.fromX(l);
+                py[n] = ai >= 0 ? layout.y(ai) : layout.fromY(l);
+                pz[n] = ai >= 0 ? layout.z(ai) : layout.fromZ(l);
+                index.put(a, na = n++);
+            }
+            int nb = index.get(b);
+            if (nb < 0) {
+                if (n == address.length) {
+                    address = Arrays.copyOf(address, n * 2);
+                    px = Arrays.copyOf(px, n * 2);
+                    py = Arrays.copyOf(py, n * 2);
+                    pz = Arrays.copyOf(pz, n * 2);
+                }
+                address[n] = b;
+                int bi = layout.lineTo(l);
+                px[n] = bi >= 0 ? layout.x(bi) : layout.toX(l);
+                py[n] = bi >= 0 ? layout.y(bi) : layout.toY(l);
+                pz[n] = bi >= 0 ? layout.z(bi) : layout.toZ(l);
+                index.put(b, nb = n++);
+            }
+            lineFrom[l] = na;
+            lineTo[l] = nb;
+            lineLength[l] = dist(layout.fromX(l), layout.fromY(l), layout.fromZ(l), layout.toX(l), layout.toY(l), layout.toZ(l));
+        }
+
+        // Line positions may disagree with the address table; shrink the heuristic until it
+        // is below every edge length so A* stays admissible (and consistent).
+        double scale = 1.0;
+        for (int l = 0; l < lines; l++) {
+            int a = lineFrom[l], b = lineTo[l];
+            double d = dist(px[a], py[a], pz[a], px[b], py[b], pz[b]);
+            if (d > 0 && lineLength[l] < d * scale) scale = lineLength[l] / d;
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int l = 0; l < lines; l++) {
+            offsets[lineFrom[l] + 1]++;
+            offsets[lineTo[l] + 1]++;
+        }
+        for (int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+        int[] fill = Arrays.copyOf(offsets, n);
+        int[] neighbours = new int[lines * 2];
+        double[] weight = new double[lines * 2];
+        for (int l = 0; l < lines; l++) {
+            int e = fill[lineFrom[l]]++;
+            neighbours[e] = lineTo[l];
+            weight[e] = lineLength[l];
+            e = fill[lineTo[l]]++;
+            neighbours[e] = lineFrom[l];
+            weight[e] = lineLength[l];
+        }
+        return new RoutingGraph(Arrays.copyOf(address, n), index, offsets, neighbours, weight,
+                Arrays.copyOf(px, n), Arrays.copyOf(py, n), Arrays.copyOf(pz, n), scale);
+    }
+
+    private static double dist(double ax, double ay, double az, double bx, double by, double bz) {
+        double dx = ax - bx, dy = ay - by, dz = az - bz;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public int nodeCount() {
+        return nodeAddress.length;
+    }
+
+    public int edgeEntries() {
+        return neighbours.length;
+    }
+
+    /** Node of an address id, or -1 when no line touches it. */
+    public int nodeOf(int address) {
+        return nodeIndex.get(address);
+    }
+
+    public int address(int node) {
+        return nodeAddress[node];
+    }
+
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    public int neighbour(int node, int k) {
+        return neighbours[offsets[node] + k];
+    }
+
+    /** Length of the k-th edge of a node. */
+    public double weight(int node, int k) {
+        return weight[offsets[node] + k];
+    }
+
+    /** Approximate heap footprint in bytes. */
+    public long estimatedBytes() {
+        return 64 + 4L * (nodeAddress.length + offsets.length + neighbours.length)
+                + 8L * (weight.length + 3L * nodeCount()) + 12L * nodeCount() * 2;
+    }
+
+    public Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * Reusable search state for breadth-first (fewest hops) and A* (shortest length) queries.
+     * Visited marks are epoch stamps, so starting a new query is O(1) and a query allocates
+     * nothing beyond the returned path copy. Not thread-safe: use one per thread.
+     */
+    public final class Search {
+        private final int[] parent = new int[nodeAddress.length];
+        private final int[] stamp = new int[nodeAddress.length];
+        private final int[] queue = new int[nodeAddress.length];
+        private final int[] path = new int[Math.max(1, nodeAddress.length)];
+        private int epoch;
+        private int pathLength;
+        private double pathCost;
+        // A* state, allocated on first weighted query
+        private double[] cost;
+        private int[] closed;
+        private IndexedMinHeap open;
+
+        /**
+         * Finds a path with the fewest hops between two address ids. Returns the number of
+         * addresses on the path, or 0 when there is none; read it with {@link #pathAddress(int)}.
+         */
+        public int searchHops(int startAddress, int destAddress) {
+            pathLength = 0;
+            pathCost = 0;
+            if (startAddress == destAddress) {
+                path[0] = startAddress;
+                return pathLength = 1;
+            }
+            int start = nodeOf(startAddress);
+            int dest = nodeOf(destAddress);
+            if (start < 0 || dest < 0) return 0;
+
+            nextEpoch();
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            stamp[start] = epoch;
+            parent[start] = -1;
+            while (head < tail) {
+                int cur = queue[head++];
+                if (cur == dest) break;
+                for (int e = offsets[cur], end = offsets[cur + 1]; e < end; e++) {
+                    int v = neighbours[e];
+                    if (stamp[v] != epoch) {
+                        stamp[v] = epoch;
+                        parent[v] = cur;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+            if (stamp[dest] != epoch) return 0;
+            return tracePath(dest);
+        }
+
+        /**
+         * Finds the path of least total line length between two address ids with A* on
+         * straight-line distance. Returns the number of addresses on the path, or 0 when
+         * there is none; the length is available from {@link #pathCost()}.
+         */
+        public int searchShortest(int startAddress, int destAddress) {
+            pathLength = 0;
+            pathCost = 0;
+            if (startAddress == destAddress) {
+                path[0] = startAddress;
+                return pathLength = 1;
+            }
+            int start = nodeOf(startAddress);
+            int dest = nodeOf(destAddress);
+            if (start < 0 || dest < 0) return 0;
+
+            if (open == null) {
+                cost = new double[nodeAddress.length];
+                closed = new int[nodeAddress.length];
+                open = new IndexedMinHeap(nodeAddress.length);
+            }
+            nextEpoch();
+            open.clear();
+            double tx = nx[dest], ty = ny[dest], tz = nz[dest];
+            stamp[start] = epoch;
+            cost[start] = 0;
+            parent[start] = -1;
+            open.pushOrDecrease(start, heuristicScale * dist(nx[start], ny[start], nz[start], tx, ty, tz));
+            while (!open.isEmpty()) {
+                int cur = open.pop();
+                if (cur == dest) break;
+                closed[cur] = epoch;
+                double base = cost[cur];
+                for (int e = offsets[cur], end = offsets[cur + 1]; e < end; e++) {
+                    int v = neighbours[e];
+                    if (closed[v] == epoch) continue;
+                    double c = base + weight[e];
+                    if (stamp[v] != epoch || c < cost[v]) {
+                        stamp[v] = epoch;
+                        cost[v] = c;
+                        parent[v] = cur;
+                        open.pushOrDecrease(v, c + heuristicScale * dist(nx[v], ny[v], nz[v], tx, ty, tz));
+                    }
+                }
+            }
+            if (stamp[dest] != epoch) return 0;
+            pathCost = cost[dest];
+            return tracePath(dest);
+        }
+
+        public int pathAddress(int i) {
+            return path[i];
+        }
+
+        /** Total line length of the last weighted path (0 after a hop search). */
+        public double pathCost() {
+            return pathCost;
+        }
+
+        /** Fewest-hops path as address ids, or null when there is none. */
+        public int[] fewestHopsPath(int startAddress, int destAddress) {
+            int len = searchHops(startAddress, destAddress);
+            return len == 0 ? null : Arrays.copyOf(path, len);
+        }
+
+        /** Shortest-length path as address ids, or null when there is none. */
+        public int[] shortestPath(int startAddress, int destAddress) {
+            int len = searchShortest(startAddress, destAddress);
+            return len == 0 ? null : Arrays.copyOf(path, len);
+        }
+
+        private void nextEpoch() {
+            if (++epoch == 0) {
+                Arrays.fill(stamp, 0);
+                if (closed != null) Arrays.fill(closed, 0);
+                epoch = 1;
+            }
+        }
+
+        private int tracePath(int dest) {
+            int len = 0;
+            for (int v = dest; v != -1; v = parent[v]) len++;
+            int i = len;
+            for (int v = dest; v != -1; v = parent[v]) path[--i] = nodeAddress[v];
+            return pathLength = len;
+        }
+    }
+}
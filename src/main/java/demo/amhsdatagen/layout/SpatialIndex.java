@@ -0,0 +1,171 @@
+package demo.amhsdatagen.layout;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Static 3D k-d tree over address coordinates.
+ * Points are referenced by their index into the coordinate arrays, so the index can sit
+ * next to any columnar address table. The tree is stored implicitly in a permutation array:
+ * the median of every range is the node, the halves are its subtrees.
+ */
+public final class SpatialIndex {
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] perm;
+    private final byte[] splitAxis;
+
+    private SpatialIndex(double[] x, double[] y, double[] z, int count) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.perm = new int[count];
+        this.splitAxis = new byte[count];
+        for (int i = 0; i < count; i++) perm[i] = i;
+        build(0, count);
+    }
+
+    public static SpatialIndex build(double[] x, double[] y, double[] z, int count) {
+        return new SpatialIndex(x, y, z, count);
+    }
+
+    /** Index over the current addresses of a layout; rebuild it after adding addresses. */
+    public static SpatialIndex forAddresses(LayoutGraph graph) {
+        return new SpatialIndex(graph.xs(), graph.ys(), graph.zs(), graph.addressCount());
+    }
+
+    public int size() {
+        return perm.length;
+    }
+
+    /**
+     * k nearest points to (qx, qy, qz), closest first. Ties are broken by the lower index,
+     * which matches a stable sort of the address list by distance.
+     *
+     * @param exclude points for which the predicate holds are skipped (may be null)
+     */
+    public int[] nearest(double qx, double qy, double qz, int k, IntPredicate exclude) {
+        if (k <= 0 || perm.length == 0) return new int[0];
+        Query q = new Query(qx, qy, qz, Math.min(k, perm.length), exclude);
+        search(q, 0, perm.length);
+        return Arrays.copyOf(q.idx, q.size);
+    }
+
+    /** Closest point that is not excluded, or -1 when every point is excluded. */
+    public int nearestOne(double qx, double qy, double qz, IntPredicate exclude) {
+        int[] r = nearest(qx, qy, qz, 1, exclude);
+        return r.length == 0 ? -1 : r[0];
+    }
+
+    private void build(int lo, int hi) {
+        while (hi - lo > 1) {
+            int axis = widestAxis(lo, hi);
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axis);
+            splitAxis[mid] = (byte) axis;
+            build(lo, mid);
+            lo = mid + 1;
+        }
+    }
+
+    private int widestAxis(int lo, int hi) {
+        double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for (int i = lo; i < hi; i++) {
+            int p = perm[i];
+            if (x[p] < minX) minX = x[p];
+            if (x[p] > maxX) maxX = x[p];
+            if (y[p] < minY) minY = y[p];
+            if (y[p] > maxY) maxY = y[p];
+            if (z[p] < minZ) minZ = z[p];
+            if (z[p] > maxZ) maxZ = z[p];
+        }
+        double sx = maxX - minX, sy = maxY - minY, sz = maxZ - minZ;
+        if (sx >= sy && sx >= sz) return 0;
+        return sy >= sz ? 1 : 2;
+    }
+
+    // Quickselect: places the k-th smallest (by axis coordinate) at perm[k]
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = coord(perm[(lo + hi) >>> 1], axis);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coord(perm[i], axis) < pivot) i++;
+                while (coord(perm[j], axis) > pivot) j--;
+                if (i <= j) {
+                    int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private double coord(int p, int axis) {
+        return axis == 0 ? x[p] : axis == 1 ? y[p] : z[p];
+    }
+
+    private void search(Query q, int lo, int hi) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int p = perm[mid];
+        if (q.exclude == null || !q.exclude.test(p)) {
+            double dx = x[p] - q.x, dy = y[p] - q.y, dz = z[p] - q.z;
+            q.offer(p, dx * dx + dy * dy + dz * dz);
+        }
+        if (hi - lo == 1) return;
+        int axis = splitAxis[mid];
+        double diff = axis == 0 ? q.x - x[p] : axis == 1 ? q.y - y[p] : q.z - z[p];
+        if (diff < 0) {
+            search(q, lo, mid);
+            if (q.accepts(diff * diff)) search(q, mid + 1, hi);
+        } else {
+            search(q, mid + 1, hi);
+            if (q.accepts(diff * diff)) search(q, lo, mid);
+        }
+    }
+
+    private static final class Query {
+        final double x, y, z;
+        final IntPredicate exclude;
+        final int[] idx;
+        final double[] dist;
+        int size;
+
+        Query(double x, double y, double z, int k, IntPredicate exclude) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.exclude = exclude;
+            this.idx = new int[k];
+            this.dist = new double[k];
+        }
+
+        boolean accepts(double d2) {
+            return size < idx.length || d2 <= dist[size - 1];
+        }
+
+        void offer(int p, double d2) {
+            int k = idx.length;
+            if (size == k && !before(d2, p, dist[k - 1], idx[k - 1])) return;
+            int i = size < k ? size++ : k - 1;
+            while (i > 0 && before(d2, p, dist[i - 1], idx[i - 1])) {
+                dist[i] = dist[i - 1];
+                idx[i] = idx[i - 1];
+                i--;
+            }
+            dist[i] = d2;
+            idx[i] = p;
+        }
+
+        private static boolean before(double d1, int i1, double d2, int i2) {
+            return d1 < d2 || (d1 == d2 && i1 < i2);
+        }
+    }
+}
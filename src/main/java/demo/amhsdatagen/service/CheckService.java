@@ -1,146 +1,237 @@
 package demo.amhsdatagen.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import demo.amhsdatagen.layout.CheckIndex;
+import demo.amhsdatagen.layout.Connectivity;
+import demo.amhsdatagen.layout.LayoutDelta;
+import demo.amhsdatagen.layout.LayoutGraph;
+import demo.amhsdatagen.layout.LayoutRule;
+import demo.amhsdatagen.layout.LayoutRules;
+import demo.amhsdatagen.layout.LayoutValidator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 @Service
 public class CheckService {
 
-    private final ConfigService configService;
+    // 고연결 주소 기준 (연결 라인 수)
+    private static final int HIGH_DEGREE = 4;
 
-    public CheckService(ConfigService configService) {
+    private final ConfigService configService;
+    private final LayoutValidator validator = new LayoutValidator(ForkJoinPool.commonPool());
+    private final boolean connectivityEnabled;
+    // 사용자별 마지막 검사 인덱스 (기준 layout 버전과 함께 보관), 추정 크기 합이 예산을 넘으면 오래된 것부터 제거
+    private final LinkedHashMap<String, RetainedIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+    private final long indexMaxBytes;
+    private long indexBytes;
+
+    public CheckService(ConfigService configService,
+                        @Value("${app.check.connectivity:true}") boolean connectivityEnabled,
+                        @Value("${app.check.index.max-bytes:268435456}") long indexMaxBytes) {
         this.configService = configService;
+        this.connectivityEnabled = connectivityEnabled;
+        this.indexMaxBytes = indexMaxBytes;
     }
 
     public Result runCheck(String userId) throws IOException {
-        JsonNode root = configService.loadOutputFromDb(userId).orElseThrow(() -> new IOException("output not found in DB"));
-        ArrayNode addressesNode = safeArray(root.path("addresses"));
-        ArrayNode linesNode = safeArray(root.path("lines"));
+        // 이전 검사의 인덱스를 꺼내 그 뒤의 변경분만 반영 (동시에 실행된 검사는 전체 검사로 진행)
+        long version = configService.layoutVersion(userId);
+        RetainedIndex retained = takeIndex(userId);
+        List<LayoutDelta> deltas = retained == null ? null
+                : configService.layoutDeltasSince(userId, retained.version, version).orElse(null);
+        boolean incremental = deltas != null && retained.index.apply(deltas);
+
+        CheckIndex index;
+        Map<String, Long> counts;
+        BitSet overlaps;
+        if (incremental) {
+            index = retained.index;
+            counts = index.ruleCounts();
+            overlaps = index.overlaps();
+        } else {
+            // 파이프라인 공용 LayoutGraph 스냅샷의 복사본으로 검사 (인덱스가 이후 변경분을 이 복사본에 반영)
+            LayoutGraph layout = configService.getLayoutSnapshot(userId)
+                    .orElseThrow(() -> new IOException("output not found in DB")).copy();
+
+            // 규칙별로 fork-join 병렬 검사
+            Map<String, LayoutRule.Finding> findings = new LinkedHashMap<>(validator.run(layout, List.of(
+                    LayoutRules.duplicateAddressIds(), LayoutRules.duplicateAddressNames(), LayoutRules.duplicatePositions(),
+                    LayoutRules.duplicateLineIds(), LayoutRules.overlappingLines(),
+                    LayoutRules.danglingEndpoints(), LayoutRules.zeroLengthLines(), LayoutRules.positionMismatch())));
+            overlaps = findings.get(LayoutRules.OVERLAPPING_LINES).flagged;
+            // 고연결 주소는 겹치는 라인을 제외하고 집계
+            findings.putAll(validator.run(layout, List.of(LayoutRules.highDegree(HIGH_DEGREE, overlaps))));
+            counts = new LinkedHashMap<>();
+            for (Map.Entry<String, LayoutRule.Finding> e : findings.entrySet()) counts.put(e.getKey(), e.getValue().count);
+
+            // 다음 검사에서 변경분만 반영할 인덱스 (id 집합, 간선 집합, 차수, union-find)
+            index = CheckIndex.build(layout, HIGH_DEGREE, findings, connectivityEnabled);
+        }
+        LayoutGraph layout = index.layout();
 
         StringBuilder log = new StringBuilder();
         log.append("==============================================\n");
         log.append("데이터 무결성 검사 시작 ").append(now()).append("\n");
-        log.append("addresses=").append(addressesNode.size()).append(", lines=").append(linesNode.size()).append("\n");
+        log.append("addresses=").append(layout.addressCount()).append(", lines=").append(layout.lineCount()).append("\n");
+        if (incremental) {
+            log.append("증분 검사: 이전 검사 이후 변경 ").append(deltas.size()).append("건 반영\n");
+        }
 
         // 1) Address 중복 검사 (id, name, pos)
-        Set<Long> seenAddrIds = new HashSet<>();
-        Set<Long> dupAddrIds = new HashSet<>();
-        Map<String, Integer> nameCount = new HashMap<>();
-        Map<String, Integer> posCount = new HashMap<>();
-
-        for (JsonNode a : addressesNode) {
-            long id = a.path("id").asLong();
-            String name = a.path("name").asText("");
-            String posKey = posKey(a.path("pos"));
-            if (!seenAddrIds.add(id)) dupAddrIds.add(id);
-            nameCount.put(name, nameCount.getOrDefault(name, 0) + 1);
-            posCount.put(posKey, posCount.getOrDefault(posKey, 0) + 1);
+        long dupAddrIds = counts.get(LayoutRules.DUPLICATE_ADDRESS_IDS);
+        long dupName = counts.get(LayoutRules.DUPLICATE_ADDRESS_NAMES);
+        long dupPos = counts.get(LayoutRules.DUPLICATE_POSITIONS);
+        log.append("[Addresses] dupId=").append(dupAddrIds).append(", dupNameKeys=").append(dupName).append(", dupPosKeys=").append(dupPos).append("\n");
+
+        // 2) Line 중복 검사 (id, identical/reverse)
+        long dupLineIds = counts.get(LayoutRules.DUPLICATE_LINE_IDS);
+        int overlapCount = overlaps.cardinality();
+        log.append("[Lines] dupId=").append(dupLineIds).append(", overlaps=").append(overlapCount).append("\n");
+
+        // 3) 겹치는 라인 제거 (중복 연결: 동일/역방향) - 비트셋 표시 후 한 번에 압축
+        int lineCount = layout.lineCount();
+        long[] droppedLineIds = overlaps.stream().mapToLong(layout::lineId).toArray();
+        LayoutGraph updated = null;
+        if (overlapCount > 0) {
+            log.append("겹치는 라인 삭제 대상: ").append(overlapCount).append("\n");
+            // 검사한 버전 그대로일 때만 삭제 (인덱스의 레이아웃은 다음 검사에서 삭제 변경분으로 맞춤)
+            if (configService.layoutVersion(userId) != version) throw new IOException("output changed during check, run the check again");
+            updated = layout.copy();
+            updated.removeLines(overlaps);
+            lineCount = updated.lineCount();
+            log.append("삭제 후 lines=").append(lineCount).append("\n");
+            log.append("삭제된 라인 id: ").append(formatIds(droppedLineIds, 50)).append("\n");
         }
 
-        long dupName = nameCount.values().stream().filter(c -> c > 1).count();
-        long dupPos = posCount.values().stream().filter(c -> c > 1).count();
-        log.append("[Addresses] dupId=").append(dupAddrIds.size()).append(", dupNameKeys=").append(dupName).append(", dupPosKeys=").append(dupPos).append("\n");
+        // 4) 고연결 주소(>=4)
+        long highly = counts.get(LayoutRules.HIGH_DEGREE);
+        log.append("highlyConnected(>=4)=").append(highly).append("\n");
 
-        // 2) Line 중복 검사 (id, identical/reverse)
-        Set<Long> seenLineIds = new HashSet<>();
-        Set<Long> dupLineIds = new HashSet<>();
-        Set<String> seenEdge = new HashSet<>();
-        List<Integer> overlapIndexes = new ArrayList<>();
-        for (int i = 0; i < linesNode.size(); i++) {
-            JsonNode l = linesNode.get(i);
-            long id = l.path("id").asLong();
-            if (!seenLineIds.add(id)) dupLineIds.add(id);
-            long from = l.path("fromAddress").asLong();
-            long to = l.path("toAddress").asLong();
-            String key = edgeKey(from, to);
-            String rkey = edgeKey(to, from);
-            if (seenEdge.contains(key) || seenEdge.contains(rkey)) {
-                overlapIndexes.add(i);
-            } else {
-                seenEdge.add(key);
+        // 5) 라인 정합성: 주소 테이블에 없는 끝점, 길이 0, fromPos/toPos 불일치 (삭제 전 기준)
+        log.append("[Rules] danglingEndpoints=").append(counts.get(LayoutRules.DANGLING_ENDPOINTS))
+                .append(", zeroLengthLines=").append(counts.get(LayoutRules.ZERO_LENGTH_LINES))
+                .append(", positionMismatch=").append(counts.get(LayoutRules.POSITION_MISMATCH)).append("\n");
+
+        // 6) 연결성: union-find 약연결 컴포넌트 + 방향 기준 강연결 컴포넌트, 스테이션 도달 가능성 (삭제 후 기준)
+        Map<String, Object> connectivity = null;
+        if (connectivityEnabled) {
+            Connectivity conn = index.connectivity();
+            int strongPasses = conn.strongPasses();
+            long[] isolatedIds = Arrays.stream(conn.isolatedAddresses()).mapToLong(layout::addressId).toArray();
+            long[] unreachableIds = Arrays.stream(conn.unreachableStations()).mapToLong(layout::stationId).toArray();
+            int[] sizes = conn.componentSizes(20);
+            log.append("[Connectivity] components=").append(conn.componentCount())
+                    .append(", largest=").append(conn.largestComponent())
+                    .append(", outsideLargest=").append(conn.outsideLargest())
+                    .append(", isolatedAddresses=").append(conn.isolatedCount())
+                    .append(", strongComponents=").append(conn.strongComponentCount())
+                    .append(" (largest=").append(conn.largestStrongComponent()).append(")\n");
+            // 강연결 컴포넌트는 라인 추가 시 제자리 갱신, 순환이 생길 수 있으면 Tarjan 전체 재계산
+            if (incremental) {
+                log.append("강연결 컴포넌트: ").append(conn.strongPasses() > strongPasses ? "전체 재계산" : "증분 갱신").append("\n");
             }
-        }
-        log.append("[Lines] dupId=").append(dupLineIds.size()).append(", overlaps=").append(overlapIndexes.size()).append("\n");
-
-        // 3) 겹치는 라인 제거 (중복 연결: 동일/역방향)
-        if (!overlapIndexes.isEmpty()) {
-            log.append("겹치는 라인 삭제 대상: ").append(overlapIndexes.size()).append("\n");
-            // 역순 삭제
-            List<Integer> sorted = new ArrayList<>(overlapIndexes);
-            sorted.sort(Comparator.reverseOrder());
-            for (int idx : sorted) {
-                // remove by rebuilding array
-                removeAt((ArrayNode) linesNode, idx);
+            if (conn.componentCount() > 1) {
+                log.append("컴포넌트 크기: ").append(formatIds(Arrays.stream(sizes).asLongStream().toArray(), 20));
+                if (conn.componentCount() > sizes.length) log.append(" ... (+").append(conn.componentCount() - sizes.length).append(")");
+                log.append("\n");
+            }
+            if (isolatedIds.length > 0) {
+                log.append("고립된 주소 id: ").append(formatIds(isolatedIds, 50)).append("\n");
+            }
+            log.append("[Stations] checked=").append(layout.stationCount()).append(", unreachable=").append(unreachableIds.length).append("\n");
+            if (unreachableIds.length > 0) {
+                log.append("도달 불가 스테이션 id: ").append(formatIds(unreachableIds, 50)).append("\n");
             }
-            log.append("삭제 후 lines=").append(linesNode.size()).append("\n");
-        }
 
-        // 4) 고연결 주소(>=4)
-        Map<Long, Integer> usage = new HashMap<>();
-        for (JsonNode l : linesNode) {
-            long from = l.path("fromAddress").asLong();
-            long to = l.path("toAddress").asLong();
-            usage.put(from, usage.getOrDefault(from, 0) + 1);
-            usage.put(to, usage.getOrDefault(to, 0) + 1);
+            connectivity = new LinkedHashMap<>();
+            connectivity.put("components", conn.componentCount());
+            connectivity.put("component_sizes", sizes);
+            connectivity.put("outside_largest", conn.outsideLargest());
+            connectivity.put("strong_components", conn.strongComponentCount());
+            connectivity.put("largest_strong_component", conn.largestStrongComponent());
+            connectivity.put("isolated_address_ids", isolatedIds);
+            connectivity.put("unreachable_station_ids", unreachableIds);
         }
-        long highly = usage.values().stream().filter(c -> c >= 4).count();
-        log.append("highlyConnected(>=4)=").append(highly).append("\n");
 
-        // 결과를 DB에 저장
-        configService.saveOutputToDb(userId, root);
+        // 검사 중 다른 저장이 없었으면 인덱스 보관 (삭제 저장분은 다음 검사에서 변경분으로 반영)
+        if (configService.layoutVersion(userId) == version) retainIndex(userId, new RetainedIndex(version, index));
+
+        // 결과를 DB에 저장 (변경이 없으면 저장 생략 - layout 버전/캐시 유지)
+        if (updated != null) {
+            configService.saveLayoutToDb(userId, updated, LayoutDelta.removedLines(layout.lineCount(), overlaps.stream().toArray()));
+        }
 
-        // stations 검사 수 계산
-        ArrayNode stationsNode = safeArray(root.path("stations"));
-        
         Result r = new Result();
         r.status = "OK";
         r.summary = String.format("addrDup=%d, nameDupKeys=%d, posDupKeys=%d, lineDup=%d, overlapsRemoved=%d, highly>=4=%d",
-                dupAddrIds.size(), dupName, dupPos, dupLineIds.size(), overlapIndexes.size(), highly);
+                dupAddrIds, dupName, dupPos, dupLineIds, overlapCount, highly);
         r.logText = log.toString();
         r.layoutPath = "db://" + userId + "_amhs_data:layout_seed.output";
-        r.addressCount = addressesNode.size();
-        r.lineCount = linesNode.size();
-        r.stationCount = stationsNode.size();
+        r.addressCount = layout.addressCount();
+        r.lineCount = lineCount;
+        r.droppedLineIds = droppedLineIds;
+        r.ruleCounts = counts;
+        r.stationCount = layout.stationCount();
+        r.connectivity = connectivity;
+        r.incremental = incremental;
         return r;
     }
 
     // no-op: legacy file->entity conversion helpers removed after DB-only refactor
 
-    private static ArrayNode safeArray(JsonNode node) {
-        if (node != null && node.isArray()) return (ArrayNode) node;
-        return new ObjectMapper().createArrayNode();
-    }
-
     private static String now() {
         return LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
     }
 
-    private static String posKey(JsonNode pos) {
-        double x = pos.path("x").asDouble();
-        double y = pos.path("y").asDouble();
-        double z = pos.path("z").asDouble();
-        return String.format("(%.1f,%.1f,%.1f)", x, y, z);
+    // 로그용: 앞의 limit개만 표시
+    private static String formatIds(long[] ids, int limit) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ids.length && i < limit; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(ids[i]);
+        }
+        if (ids.length > limit) sb.append(" ... (+").append(ids.length - limit).append(")");
+        return sb.toString();
+    }
+
+    // 보관된 인덱스를 꺼냄 (꺼낸 검사만 사용, 동시에 실행된 검사는 전체 검사)
+    private synchronized RetainedIndex takeIndex(String userId) {
+        RetainedIndex r = indexes.remove(userId);
+        if (r != null) indexBytes -= r.bytes;
+        return r;
     }
 
-    private static String edgeKey(long a, long b) {
-        return a + "->" + b;
+    private synchronized void retainIndex(String userId, RetainedIndex r) {
+        RetainedIndex old = indexes.remove(userId);
+        if (old != null) indexBytes -= old.bytes;
+        // 예산보다 큰 인덱스는 보관하지 않음 (다음 검사는 전체 검사)
+        if (r.bytes > indexMaxBytes) return;
+        indexes.put(userId, r);
+        indexBytes += r.bytes;
+        Iterator<Map.Entry<String, RetainedIndex>> it = indexes.entrySet().iterator();
+        while (indexBytes > indexMaxBytes && it.hasNext()) {
+            Map.Entry<String, RetainedIndex> eldest = it.next();
+            if (eldest.getKey().equals(userId)) continue;
+            indexBytes -= eldest.getValue().bytes;
+            it.remove();
+        }
     }
 
-    private static void removeAt(ArrayNode array, int index) {
-        ArrayNode newArr = array.arrayNode();
-        for (int i = 0; i < array.size(); i++) {
-            if (i == index) continue;
-            newArr.add(array.get(i));
+    private static final class RetainedIndex {
+        final long version;
+        final CheckIndex index;
+        final long bytes;
+
+        RetainedIndex(long version, CheckIndex index) {
+            this.version = version;
+            this.index = index;
+            this.bytes = index.estimatedBytes();
         }
-        array.removeAll();
-        array.addAll(newArr);
     }
 
     public static class Result {
@@ -151,6 +242,10 @@ public class CheckService {
         public int addressCount;
         public int lineCount;
         public int stationCount;
+        public long[] droppedLineIds;   // 겹침으로 삭제된 라인 id (입력 순서)
+        public Map<String, Long> ruleCounts;   // 규칙 id별 검출 수 (LayoutRules)
+        public Map<String, Object> connectivity;   // 연결성 분석 결과 (비활성화 시 null)
+        public boolean incremental;   // 이전 검사 인덱스에 변경분만 반영했는지 여부
     }
 }
 
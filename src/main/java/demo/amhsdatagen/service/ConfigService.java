@@ -2,11 +2,34 @@ package demo.amhsdatagen.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.amhsdatagen.layout.LayoutDelta;
+import demo.amhsdatagen.layout.LayoutGraph;
+import demo.amhsdatagen.layout.LayoutJson;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Service
 public class ConfigService {
@@ -18,61 +41,386 @@ public class ConfigService {
     private final UserTableService userTableService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public ConfigService(UserTableService userTableService) {
+    // OHT 로그 청크 저장 형식: binary (UdpLogCodec, 기본) 또는 text
+    @Value("${app.oht-log.encoding:binary}")
+    private String ohtLogEncoding;
+
+    // layout JSON 저장 시 pretty-print 여부 (기본: compact)
+    @Value("${app.layout.pretty-output:false}")
+    private boolean prettyOutput;
+
+    // 사용자별 layout 버전: output/input 저장 시 증가, 캐시 항목은 이 버전과 일치할 때만 사용
+    private final ConcurrentHashMap<String, AtomicLong> layoutVersions = new ConcurrentHashMap<>();
+
+    // 사용자별 output 변경 내역 (저장 전 버전 -> 저장 후 버전, 변경분). 증분 검사가 이어 붙여 적용
+    private static final int MAX_LAYOUT_DELTAS = 32;
+    private final ConcurrentHashMap<String, Deque<DeltaEntry>> layoutDeltas = new ConcurrentHashMap<>();
+
+    // 파싱된 output 캐시 (JSON 트리 / LayoutGraph / 뷰어 레이어 분할), 바이트 예산 기준 LRU
+    private final VersionedLruCache<String, Object> layoutCache;
+
+    public ConfigService(UserTableService userTableService,
+                         @Value("${app.layout.cache.max-bytes:268435456}") long cacheMaxBytes) {
         this.userTableService = userTableService;
+        this.layoutCache = new VersionedLruCache<>("layout", cacheMaxBytes, ConfigService::estimateBytes);
     }
 
     // 사용자별 데이터 로드/저장 메서드들
     public Optional<JsonNode> loadInputFromDb(String userId) {
-        return userTableService.findByUserIdAndKey(userId, KEY_INPUT).map(entry -> {
-            try {
-                return objectMapper.readTree(entry.getConfigValue());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        return readTree(userId, KEY_INPUT);
     }
 
     @Transactional
     public void saveInputToDb(String userId, JsonNode node) {
-        String json = node.toPrettyString();
-        userTableService.saveToUserTable(userId, KEY_INPUT, json);
+        bumpLayoutVersion(userId);
+        userTableService.streamToUserTable(userId, KEY_INPUT, out -> writeTree(node, out));
     }
 
     public Optional<JsonNode> loadOutputFromDb(String userId) {
-        return userTableService.findByUserIdAndKey(userId, KEY_OUTPUT).map(entry -> {
-            try {
-                return objectMapper.readTree(entry.getConfigValue());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        return readTree(userId, KEY_OUTPUT);
     }
 
     @Transactional
     public void saveOutputToDb(String userId, JsonNode node) {
-        String json = node.toPrettyString();
-        userTableService.saveToUserTable(userId, KEY_OUTPUT, json);
+        saveOutputToDb(userId, node, null);
+    }
+
+    // delta: 이전 output 대비 변경분 (없으면 null - 증분 검사는 전체 검사로 대체)
+    @Transactional
+    public void saveOutputToDb(String userId, JsonNode node, LayoutDelta delta) {
+        bumpLayoutVersion(userId, delta);
+        userTableService.streamToUserTable(userId, KEY_OUTPUT, out -> writeTree(node, out));
+    }
+
+    // 파이프라인 공용 레이아웃 모델(LayoutGraph)로 output 로드/저장
+    // 캐시된 스냅샷의 복사본을 반환하므로 호출자가 자유롭게 수정 가능
+    public Optional<LayoutGraph> loadLayoutFromDb(String userId) {
+        return getLayoutSnapshot(userId).map(LayoutGraph::copy);
+    }
+
+    // 캐시된 output JSON 트리 (공유 인스턴스 - 수정 금지, 수정이 필요하면 loadOutputFromDb 사용)
+    public Optional<JsonNode> getOutputSnapshot(String userId) {
+        long version = layoutVersion(userId);
+        Object v = layoutCache.get(userId + "|tree", version, () -> readTree(userId, KEY_OUTPUT).orElse(null));
+        return Optional.ofNullable((JsonNode) v);
+    }
+
+    // 캐시된 LayoutGraph (공유 인스턴스 - 수정 금지)
+    public Optional<LayoutGraph> getLayoutSnapshot(String userId) {
+        long version = layoutVersion(userId);
+        Object v = layoutCache.get(userId + "|graph", version,
+                () -> readLayout(userId).orElse(null));
+        return Optional.ofNullable((LayoutGraph) v);
+    }
+
+    // 뷰어용 레이어 분할 인덱스 (output 스냅샷 기준, 공유 인스턴스 - 수정 금지)
+    public Optional<LayerPartition> getLayerPartition(String userId) {
+        long version = layoutVersion(userId);
+        Object v = layoutCache.get(userId + "|layers", version,
+                () -> getOutputSnapshot(userId).map(LayerPartition::of).orElse(null));
+        return Optional.ofNullable((LayerPartition) v);
+    }
+
+    public long layoutVersion(String userId) {
+        return layoutVersions.computeIfAbsent(userId, k -> new AtomicLong()).get();
+    }
+
+    // fromVersion 이후 toVersion까지의 변경분 (순서대로). 중간에 변경분 없이 저장된 적이 있으면 empty
+    public Optional<List<LayoutDelta>> layoutDeltasSince(String userId, long fromVersion, long toVersion) {
+        Deque<DeltaEntry> entries = layoutDeltas.get(userId);
+        List<LayoutDelta> out = new ArrayList<>();
+        long at = fromVersion;
+        while (at != toVersion) {
+            DeltaEntry next = null;
+            if (entries != null) {
+                synchronized (entries) {
+                    for (DeltaEntry e : entries) {
+                        if (e.fromVersion == at) next = e;
+                    }
+                }
+            }
+            if (next == null) return Optional.empty();
+            out.add(next.delta);
+            at = next.toVersion;
+        }
+        return Optional.of(out);
+    }
+
+    // ConfigService를 거치지 않고 output/input을 변경했거나 테이블을 삭제한 경우 호출
+    public void invalidateLayout(String userId) {
+        bumpLayoutVersion(userId);
+        layoutDeltas.remove(userId);
+        layoutCache.invalidate(userId + "|tree");
+        layoutCache.invalidate(userId + "|graph");
+        layoutCache.invalidate(userId + "|layers");
     }
 
-    public Optional<String> loadOhtLogFromDb(String userId) {
-        return userTableService.findByUserIdAndKey(userId, KEY_OHT_LOG).map(entry -> entry.getConfigValue());
+    public Map<String, Object> layoutCacheStats() {
+        return layoutCache.stats();
+    }
+
+    // 캐시 미스 시 output 전체를 LayoutGraph로 파싱 (라우팅 등 모든 소비자가 이 스냅샷을 공유)
+    private Optional<LayoutGraph> readLayout(String userId) {
+        try {
+            return userTableService.readFromUserTable(userId, KEY_OUTPUT,
+                    in -> LayoutJson.read(in, objectMapper.getFactory()));
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // ObjectNode 트리/문자열을 만들지 않고 모델에서 DB CLOB으로 바로 스트리밍
+    @Transactional
+    public void saveLayoutToDb(String userId, LayoutGraph layout) {
+        saveLayoutToDb(userId, layout, null);
+    }
+
+    @Transactional
+    public void saveLayoutToDb(String userId, LayoutGraph layout, LayoutDelta delta) {
+        bumpLayoutVersion(userId, delta);
+        userTableService.streamToUserTable(userId, KEY_OUTPUT,
+                out -> LayoutJson.write(layout, out, objectMapper.getFactory(), prettyOutput));
+    }
+
+    // OHT 로그: append-only 청크 테이블 ("<userId>_oht_log")에 저장, 읽을 때 seq 순서로 이어 붙임
+    public boolean hasOhtLog(String userId) {
+        return userTableService.hasOhtLogChunks(userId) || userTableService.hasConfigKey(userId, KEY_OHT_LOG);
+    }
+
+    // 청크 사이에 줄바꿈이 없으면 하나 넣어 기존 단일 CLOB 이어쓰기와 같은 내용으로 출력
+    public void streamOhtLog(String userId, Writer out) throws IOException {
+        char[] buf = new char[8192];
+        char[] last = {0};
+        ChunkCopier copier = in -> {
+            int n;
+            boolean first = true;
+            while ((n = in.read(buf)) > 0) {
+                if (first && last[0] != 0 && last[0] != '\n') out.write('\n');
+                first = false;
+                out.write(buf, 0, n);
+                last[0] = buf[n - 1];
+            }
+        };
+        Optional<String> legacy = userTableService.getConfigValue(userId, KEY_OHT_LOG);
+        if (legacy.isPresent()) copier.copy(new StringReader(legacy.get()));
+        try {
+            userTableService.readOhtLogChunks(userId, (seq, in) -> copier.copy(in));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // 로그를 줄 단위로 전달 (청크 경계는 항상 줄 경계)
+    public void forEachOhtLogLine(String userId, Consumer<String> consumer) {
+        Optional<String> legacy = userTableService.getConfigValue(userId, KEY_OHT_LOG);
+        if (legacy.isPresent()) {
+            for (String line : legacy.get().split("\n")) consumer.accept(line);
+        }
+        userTableService.readOhtLogChunks(userId, (seq, in) -> {
+            BufferedReader reader = new BufferedReader(in);
+            String line;
+            while ((line = reader.readLine()) != null) consumer.accept(line);
+        });
+    }
+
+    // 청크를 하나씩 별도 조회로 전달 (재생처럼 오래 걸리는 소비자가 DB 커넥션을 잡고 있지 않도록)
+    // consumer가 false를 반환하면 중단
+    public void forEachOhtLogChunk(String userId, Predicate<String> consumer) {
+        Optional<String> legacy = userTableService.getConfigValue(userId, KEY_OHT_LOG);
+        if (legacy.isPresent() && !consumer.test(legacy.get())) return;
+        for (UserTableService.ChunkInfo chunk : userTableService.listOhtLogChunks(userId)) {
+            Optional<String> content = userTableService.readOhtLogChunk(userId, chunk.getSeq());
+            if (content.isPresent() && !consumer.test(content.get())) return;
+        }
     }
 
     @Transactional
     public void saveOhtLogToDb(String userId, String content) {
-        String newChunk = content == null ? "" : content;
-        Optional<UserTableService.ConfigData> existing = userTableService.findByUserIdAndKey(userId, KEY_OHT_LOG);
-        
-        String prev = existing.map(UserTableService.ConfigData::getConfigValue).orElse("");
-        StringBuilder sb = new StringBuilder();
-        if (prev != null && !prev.isEmpty()) {
-            sb.append(prev);
-            if (!prev.endsWith("\n")) sb.append('\n');
-        }
-        if (!newChunk.isEmpty()) sb.append(newChunk);
-        
-        userTableService.saveToUserTable(userId, KEY_OHT_LOG, sb.toString());
+        saveOhtLogToDb(userId, content, null, null);
+    }
+
+    // 새 청크만 INSERT (O(chunk)); 기존 로그는 다시 읽거나 쓰지 않음
+    @Transactional
+    public void saveOhtLogToDb(String userId, String content, Long startTime, Long endTime) {
+        migrateLegacyOhtLog(userId);
+        if (content == null || content.isEmpty()) return;
+        int lineCount = 0;
+        for (int i = 0; i < content.length(); i++) if (content.charAt(i) == '\n') lineCount++;
+        if (!content.endsWith("\n")) lineCount++;
+        appendOhtLogChunk(userId, startTime, endTime, lineCount, content);
+    }
+
+    // 읽을 때는 형식과 관계없이 같은 텍스트로 복원됨
+    // 저장하면서 차량별 시간 범위 인덱스를 함께 기록하고, 청크 시간 범위는 실제 레코드 기준으로 채움
+    private void appendOhtLogChunk(String userId, Long startTime, Long endTime, int lineCount, String content) {
+        ChunkIndexer index = new ChunkIndexer();
+        if ("text".equalsIgnoreCase(ohtLogEncoding)) {
+            UdpLogCodec.scanText(content, index);
+            userTableService.appendOhtLogChunk(userId, index.startTime(startTime), index.endTime(endTime),
+                    lineCount, content, index.vehicles());
+        } else {
+            byte[] data = UdpLogCodec.encode(content, index);
+            userTableService.appendEncodedOhtLogChunk(userId, index.startTime(startTime), index.endTime(endTime),
+                    lineCount, data, index.vehicles());
+        }
+    }
+
+    // 예전 방식의 단일 CLOB이 남아 있으면 그 내용 (저장 시 첫 청크로 옮겨짐)
+    public Optional<String> loadLegacyOhtLog(String userId) {
+        return userTableService.getConfigValue(userId, KEY_OHT_LOG);
+    }
+
+    // 청크 내 레코드의 차량(MCP 태그)별 첫/마지막 시각(epoch ms)과 줄 수
+    private static final class ChunkIndexer implements UdpLogCodec.LineVisitor {
+        private final UdpLogCodec.WallClock clock = new UdpLogCodec.WallClock(ZoneId.systemDefault());
+        private final Map<String, long[]> spans = new LinkedHashMap<>();
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        @Override
+        public boolean visit(UdpLogCodec.Line line) {
+            if (!line.record) return true;
+            long t = clock.toEpochMillis(line.wallTime);
+            long[] span = spans.get(line.mcp);
+            if (span == null) spans.put(line.mcp, new long[] {t, t, 1});
+            else {
+                span[0] = Math.min(span[0], t);
+                span[1] = Math.max(span[1], t);
+                span[2]++;
+            }
+            minTime = Math.min(minTime, t);
+            maxTime = Math.max(maxTime, t);
+            return true;
+        }
+
+        Long startTime(Long given) {
+            return spans.isEmpty() ? given : Long.valueOf(minTime);
+        }
+
+        Long endTime(Long given) {
+            return spans.isEmpty() ? given : Long.valueOf(maxTime);
+        }
+
+        List<UserTableService.VehicleSpan> vehicles() {
+            List<UserTableService.VehicleSpan> list = new ArrayList<>(spans.size());
+            spans.forEach((mcp, s) -> list.add(new UserTableService.VehicleSpan(mcp, s[0], s[1], (int) s[2])));
+            return list;
+        }
+    }
+
+    // 예전 방식의 단일 CLOB (oht_track.datalog)이 있으면 첫 청크로 옮김 (한 번만 발생)
+    private void migrateLegacyOhtLog(String userId) {
+        if (!userTableService.hasConfigKey(userId, KEY_OHT_LOG)) return;
+        String legacy = userTableService.getConfigValue(userId, KEY_OHT_LOG).orElse("");
+        if (!legacy.isEmpty()) {
+            int lineCount = legacy.split("\n").length;
+            appendOhtLogChunk(userId, null, null, lineCount, legacy);
+        }
+        userTableService.deleteFromUserTable(userId, KEY_OHT_LOG);
+    }
+
+    // 로그 삭제 (사용자 데이터 초기화 시)
+    public void clearOhtLog(String userId) {
+        userTableService.dropOhtLogTable(userId);
+    }
+
+    @FunctionalInterface
+    private interface ChunkCopier {
+        void copy(Reader in) throws IOException;
+    }
+    
+    // CLOB을 String으로 만들지 않고 Reader에서 바로 트리 파싱
+    private Optional<JsonNode> readTree(String userId, String key) {
+        try {
+            return userTableService.readFromUserTable(userId, key, objectMapper::readTree);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void bumpLayoutVersion(String userId) {
+        bumpLayoutVersion(userId, null);
+    }
+
+    // 쓰기 전에 한 번, 트랜잭션 종료 후 한 번 더 증가시켜
+    // 커밋 전의 이전 데이터를 읽은 로더가 새 버전으로 캐시하는 경우를 막음
+    // 변경분은 커밋된 경우에만 (저장 전 버전 -> 최종 버전)으로 기록
+    private void bumpLayoutVersion(String userId, LayoutDelta delta) {
+        AtomicLong version = layoutVersions.computeIfAbsent(userId, k -> new AtomicLong());
+        long before = version.getAndIncrement();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    long after = version.incrementAndGet();
+                    if (delta != null && status == STATUS_COMMITTED) recordDelta(userId, before, after, delta);
+                }
+            });
+        } else if (delta != null) {
+            recordDelta(userId, before, before + 1, delta);
+        }
+    }
+
+    private void recordDelta(String userId, long fromVersion, long toVersion, LayoutDelta delta) {
+        Deque<DeltaEntry> entries = layoutDeltas.computeIfAbsent(userId, k -> new ArrayDeque<>());
+        synchronized (entries) {
+            entries.addLast(new DeltaEntry(fromVersion, toVersion, delta));
+            while (entries.size() > MAX_LAYOUT_DELTAS) entries.removeFirst();
+        }
+    }
+
+    private static final class DeltaEntry {
+        final long fromVersion;
+        final long toVersion;
+        final LayoutDelta delta;
+
+        DeltaEntry(long fromVersion, long toVersion, LayoutDelta delta) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.delta = delta;
+        }
+    }
+
+    // 캐시 항목 크기 추정
+    private static long estimateBytes(Object value) {
+        if (value instanceof LayoutGraph g) return g.estimatedBytes();
+        if (value instanceof JsonNode node) return estimateTreeBytes(node);
+        // 분할 인덱스는 스냅샷 트리를 붙잡고 있으므로 트리 크기까지 계산
+        // ("|tree" 항목이 먼저 제거되거나 예산보다 커서 보관되지 않아도 메모리를 예산에 반영,
+        //  두 항목이 함께 있으면 트리가 중복 계산되어 예산보다 적게 사용)
+        if (value instanceof LayerPartition p) return p.estimatedBytes() + estimateTreeBytes(p.output());
+        return 1024;
+    }
+
+    // JsonNode 트리 대략적 힙 크기: 노드당 오버헤드 + 문자열/필드명 길이
+    static long estimateTreeBytes(JsonNode root) {
+        long bytes = 0;
+        Deque<JsonNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            JsonNode n = stack.pop();
+            bytes += 32;
+            if (n.isObject()) {
+                bytes += 64;
+                Iterator<Map.Entry<String, JsonNode>> it = n.fields();
+                while (it.hasNext()) {
+                    Map.Entry<String, JsonNode> e = it.next();
+                    bytes += 40;
+                    stack.push(e.getValue());
+                }
+            } else if (n.isArray()) {
+                bytes += 32 + 8L * n.size();
+                for (JsonNode c : n) stack.push(c);
+            } else if (n.isTextual()) {
+                bytes += 48 + n.textValue().length();
+            }
+        }
+        return bytes;
+    }
+
+    private void writeTree(JsonNode node, Writer out) throws IOException {
+        if (prettyOutput) objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, node);
+        else objectMapper.writeValue(out, node);
     }
     
     // 기존 메서드들 (사용자 ID 없이 호출되는 경우를 위한 기본값)
@@ -0,0 +1,284 @@
+package demo.amhsdatagen.service;
+
+import demo.amhsdatagen.layout.IndexedMinHeap;
+import demo.amhsdatagen.layout.RoutingGraph;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of OHTs driving their routes on a shared track.
+ *
+ * An address can be held by one vehicle at a time. A vehicle holds the address it stands on
+ * and, while driving an edge, the address it is driving to, so an edge in use blocks both of its
+ * ends. A vehicle whose next address is held waits in that address's FIFO queue. When the
+ * holder moves on, the address passes straight to the first waiter, which then continues
+ * without queueing again, so waiters are served in arrival order. Each departure is written as
+ * one UDP log line at the departure time.
+ *
+ * Start addresses are claimed in vehicle order before anything moves.
+ *
+ * Every vehicle has at most one pending event, so the event queue is an indexed heap over vehicle
+ * indices (ties go to the lower index). Wait queues are intrusive linked lists over vehicle
+ * indices. Memory is O(vehicles + addresses + route lengths) however many events run, and log text
+ * is handed to the sink in chunks.
+ *
+ * Tracks are driven in both directions, so vehicles can block each other head-on. A vehicle
+ * that has waited maxWaitMs gives up its job and leaves the track, freeing what it holds.
+ * Such vehicles are counted as stuck.
+ */
+public final class FleetSimulator {
+
+    /** Receives the log text in time order; the formatter is cleared after each call. */
+    @FunctionalInterface
+    public interface LogSink {
+        void accept(UdpLogFormatter chunk, long firstTime, long lastTime);
+    }
+
+    public static final class Stats {
+        public int vehicles;
+        public long events;
+        public long lines;
+        public long blockedWaits;
+        public long totalWaitMs;
+        public int finished;
+        public int stuck;
+        public int neverEntered;
+        public long startTime;
+        public long endTime;
+    }
+
+    private static final byte ENTER = 0;
+    private static final byte DEPART = 1;
+    private static final byte ARRIVE = 2;
+    private static final long NOT_WAITING = Long.MIN_VALUE;
+
+    private final RoutingGraph graph;
+    private final UdpLogFormatter out;
+    private final LogSink sink;
+    private final int flushChars;
+    private final long maxWaitMs;
+
+    // occupancy per address node: holding vehicle or -1, and the FIFO of waiting vehicles
+    private final int[] holder;
+    private final int[] waitHead;
+    private final int[] waitTail;
+
+    // per vehicle
+    private int count;
+    private int[][] route = new int[16][];
+    private int[] step = new int[16];
+    private int[] destination = new int[16];
+    private long[] time = new long[16];
+    private long[] waitSince = new long[16];
+    private byte[] phase = new byte[16];
+    private int[] waitNext = new int[16];
+    private int[] waitingOn = new int[16];
+    private String[] ohtId = new String[16];
+    private SplittableRandom[] rnd = new SplittableRandom[16];
+
+    private long chunkFirst = Long.MIN_VALUE;
+    private long chunkLast;
+
+    public FleetSimulator(RoutingGraph graph, UdpLogFormatter out, LogSink sink, int flushChars, long maxWaitMs) {
+        this.graph = graph;
+        this.out = out;
+        this.sink = sink;
+        this.flushChars = flushChars;
+        this.maxWaitMs = maxWaitMs;
+        int nodes = graph.nodeCount();
+        holder = new int[nodes];
+        waitHead = new int[nodes];
+        waitTail = new int[nodes];
+        Arrays.fill(holder, -1);
+        Arrays.fill(waitHead, -1);
+        Arrays.fill(waitTail, -1);
+    }
+
+    /**
+     * Adds a vehicle that enters the track at the first address of its route at startTime.
+     * Routes with fewer than two addresses, or with addresses that are not on the graph, are ignored.
+     */
+    public void addVehicle(String id, int[] routeAddresses, int destinationAddress, long startTime, SplittableRandom random) {
+        if (routeAddresses == null || routeAddresses.length < 2) return;
+        int[] nodes = new int[routeAddresses.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = graph.nodeOf(routeAddresses[i]);
+            if (nodes[i] < 0) return;
+        }
+        if (count == route.length) grow();
+        int v = count++;
+        route[v] = nodes;
+        step[v] = 0;
+        destination[v] = destinationAddress;
+        time[v] = startTime;
+        waitSince[v] = NOT_WAITING;
+        phase[v] = ENTER;
+        waitNext[v] = -1;
+        waitingOn[v] = -1;
+        ohtId[v] = id;
+        rnd[v] = random;
+    }
+
+    public Stats run() {
+        Stats stats = new Stats();
+        stats.vehicles = count;
+        IndexedMinHeap events = new IndexedMinHeap(Math.max(count, 1));
+        long start = Long.MAX_VALUE;
+        for (int v = 0; v < count; v++) start = Math.min(start, time[v]);
+        // claim start addresses first; a vehicle whose start is taken waits to enter
+        for (int v = 0; v < count; v++) {
+            if (holder[route[v][0]] < 0 && time[v] == start) {
+                holder[route[v][0]] = v;
+                phase[v] = DEPART;
+            }
+            events.pushOrDecrease(v, time[v]);
+        }
+        stats.startTime = count == 0 ? 0 : start;
+        stats.endTime = stats.startTime;
+
+        while (!events.isEmpty()) {
+            int v = events.pop();
+            long t = time[v];
+            stats.events++;
+            stats.endTime = Math.max(stats.endTime, t);
+            int[] r = route[v];
+            int i = step[v];
+            if (waitingOn[v] >= 0) {
+                // wait timed out: leave the wait queue and the track
+                unlinkWaiter(v);
+                if (phase[v] == DEPART) release(r[i], t, events, stats);
+                else stats.neverEntered++;
+                stats.totalWaitMs += t - waitSince[v];
+                stats.stuck++;
+                continue;
+            }
+            switch (phase[v]) {
+                case ENTER -> {
+                    // holder is already v when the address was handed over on release
+                    if (holder[r[0]] == v || tryHold(r[0], v, t, stats)) {
+                        phase[v] = DEPART;
+                        events.pushOrDecrease(v, t);
+                    } else {
+                        events.pushOrDecrease(v, waitSince[v] + maxWaitMs);
+                    }
+                }
+                case DEPART -> {
+                    if (holder[r[i + 1]] == v || tryHold(r[i + 1], v, t, stats)) {
+                        emit(t, r[i], r[i + 1], v);
+                        stats.lines++;
+                        phase[v] = ARRIVE;
+                        time[v] = t + stepMillis(rnd[v]);
+                        events.pushOrDecrease(v, time[v]);
+                    } else {
+                        events.pushOrDecrease(v, waitSince[v] + maxWaitMs);
+                    }
+                }
+                default -> {
+                    release(r[i], t, events, stats);
+                    step[v] = ++i;
+                    if (i == r.length - 1) {
+                        release(r[i], t, events, stats);
+                        stats.finished++;
+                    } else {
+                        phase[v] = DEPART;
+                        events.pushOrDecrease(v, t);
+                    }
+                }
+            }
+        }
+        flush();
+        return stats;
+    }
+
+    // Takes the address for v, or queues v behind the current holder
+    private boolean tryHold(int node, int v, long t, Stats stats) {
+        if (holder[node] < 0) {
+            holder[node] = v;
+            endWait(v, t, stats);
+            return true;
+        }
+        if (waitSince[v] == NOT_WAITING) {
+            waitSince[v] = t;
+            stats.blockedWaits++;
+        }
+        waitNext[v] = -1;
+        waitingOn[v] = node;
+        time[v] = waitSince[v] + maxWaitMs;
+        if (waitTail[node] < 0) waitHead[node] = v;
+        else waitNext[waitTail[node]] = v;
+        waitTail[node] = v;
+        return false;
+    }
+
+    // Hands the address to the first vehicle waiting for it, which resumes at the same time;
+    // frees it when nobody waits. A vehicle arriving in between cannot take it first.
+    private void release(int node, long t, IndexedMinHeap events, Stats stats) {
+        int w = waitHead[node];
+        if (w < 0) {
+            holder[node] = -1;
+            return;
+        }
+        holder[node] = w;
+        waitHead[node] = waitNext[w];
+        if (waitHead[node] < 0) waitTail[node] = -1;
+        waitNext[w] = -1;
+        waitingOn[w] = -1;
+        endWait(w, t, stats);
+        time[w] = t;
+        events.pushOrDecrease(w, t);
+    }
+
+    private void endWait(int v, long t, Stats stats) {
+        if (waitSince[v] != NOT_WAITING) {
+            stats.totalWaitMs += t - waitSince[v];
+            waitSince[v] = NOT_WAITING;
+        }
+    }
+
+    private void unlinkWaiter(int v) {
+        int node = waitingOn[v];
+        int prev = -1;
+        for (int w = waitHead[node]; w >= 0; prev = w, w = waitNext[w]) {
+            if (w != v) continue;
+            if (prev < 0) waitHead[node] = waitNext[w];
+            else waitNext[prev] = waitNext[w];
+            if (waitTail[node] == v) waitTail[node] = prev;
+            break;
+        }
+        waitNext[v] = -1;
+        waitingOn[v] = -1;
+    }
+
+    private void emit(long t, int fromNode, int toNode, int v) {
+        if (chunkFirst == Long.MIN_VALUE) chunkFirst = t;
+        chunkLast = t;
+        out.appendLine(t, graph.address(fromNode), graph.address(toNode), destination[v], ohtId[v]);
+        if (out.length() >= flushChars) flush();
+    }
+
+    private void flush() {
+        if (out.length() == 0) return;
+        sink.accept(out, chunkFirst, chunkLast);
+        out.clear();
+        chunkFirst = Long.MIN_VALUE;
+    }
+
+    private static int stepMillis(SplittableRandom rnd) {
+        return GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + rnd.nextInt(Math.max(1, GenerationConfig.UDP_TIME_INCREMENT_MAX_MS - GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + 1));
+    }
+
+    private void grow() {
+        int cap = route.length * 2;
+        route = Arrays.copyOf(route, cap);
+        step = Arrays.copyOf(step, cap);
+        destination = Arrays.copyOf(destination, cap);
+        time = Arrays.copyOf(time, cap);
+        waitSince = Arrays.copyOf(waitSince, cap);
+        phase = Arrays.copyOf(phase, cap);
+        waitNext = Arrays.copyOf(waitNext, cap);
+        waitingOn = Arrays.copyOf(waitingOn, cap);
+        ohtId = Arrays.copyOf(ohtId, cap);
+        rnd = Arrays.copyOf(rnd, cap);
+    }
+}
@@ -42,6 +42,21 @@ public final class GenerationConfig {
     public static final int UDP_TIME_INCREMENT_MIN_MS = 300;
     public static final int UDP_TIME_INCREMENT_MAX_MS = 400;
 
+    // Bulk routing: one worker per this many requests (capped at the common pool parallelism)
+    public static final int UDP_ROUTES_PER_WORKER = 32;
+
+    // Fleet simulation: log text is appended to the DB every this many chars; the API response
+    // carries only the first UDP_SIM_PREVIEW_CHARS of it
+    public static final int UDP_SIM_FLUSH_CHARS = 1 << 20;
+    public static final int UDP_SIM_PREVIEW_CHARS = 64 * 1024;
+    // a simulated OHT blocked longer than this abandons its job and leaves the track
+    public static final long UDP_SIM_MAX_WAIT_MS = 30_000L;
+
+    // Continuous traffic: records travel from the generator to the sink in batches of this many
+    // lines, through a queue of at most UDP_TRAFFIC_QUEUE_BATCHES batches (the generator waits when it is full)
+    public static final int UDP_TRAFFIC_BATCH_LINES = 512;
+    public static final int UDP_TRAFFIC_QUEUE_BATCHES = 32;
+
     public static Path dataDir(Path projectRoot) {
         // 기본적으로 프로젝트 루트의 copy_layout 디렉토리를 데이터 폴더로 사용
         return projectRoot.resolve("copy_layout");
@@ -0,0 +1,152 @@
+package demo.amhsdatagen.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import demo.amhsdatagen.layout.LongIntHashMap;
+
+import java.util.BitSet;
+
+/**
+ * Addresses, lines and stations of one output snapshot, partitioned by viewer layer.
+ *
+ * Addresses and stations fall into a layer by their z; lines by the layers of their two
+ * endpoint addresses (an id may appear at several layers, so each endpoint has a layer mask).
+ * A selection ORs the bit sets of the requested layers and walks the set bits, so a payload
+ * costs time in the selected elements and keeps the order of the output. Built once per layout
+ * version and shared by the 2D and 3D viewers; the nodes are those of the shared snapshot tree
+ * and must not be modified. The partition holds that snapshot, so a viewer that takes both the
+ * output and the selection from it never mixes two versions.
+ */
+public final class LayerPartition {
+
+    public static final int Z6022 = 1;
+    public static final int Z4822 = 2;
+    public static final int Z3000 = 4;
+
+    private static final String[] LAYER_NAMES = {"z6022", "z4822", "z3000"};
+    private static final double[] LAYER_Z = {6022.0, 4822.0, 3000.0};
+    private static final double Z_TOLERANCE = 0.1;
+    private static final int LAYERS = LAYER_NAMES.length;
+
+    private final JsonNode output;
+    private final JsonNode addresses;
+    private final JsonNode lines;
+    private final JsonNode stations;
+    private final byte[] addressLayer;
+    private final byte[] stationLayer;
+    private final BitSet[] addressesByLayer = new BitSet[LAYERS];
+    private final BitSet[] stationsByLayer = new BitSet[LAYERS];
+    // lines by endpoint layer masks, index (fromMask << LAYERS) | toMask
+    private final BitSet[] linesByEnds = new BitSet[1 << (2 * LAYERS)];
+
+    private LayerPartition(JsonNode output) {
+        this.output = output;
+        addresses = output.path("addresses");
+        lines = output.path("lines");
+        stations = output.path("stations");
+        for (int k = 0; k < LAYERS; k++) {
+            addressesByLayer[k] = new BitSet();
+            stationsByLayer[k] = new BitSet();
+        }
+
+        addressLayer = new byte[addresses.size()];
+        LongIntHashMap masks = new LongIntHashMap(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            JsonNode a = addresses.get(i);
+            int k = layerOf(a.path("pos").path("z").asDouble());
+            addressLayer[i] = (byte) k;
+            if (k < 0) continue;
+            addressesByLayer[k].set(i);
+            long id = a.path("id").asLong();
+            masks.put(id, Math.max(masks.get(id), 0) | (1 << k));
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            JsonNode l = lines.get(i);
+            int from = masks.get(l.path("fromAddress").asLong());
+            int to = masks.get(l.path("toAddress").asLong());
+            if (from <= 0 || to <= 0) continue;
+            int bucket = (from << LAYERS) | to;
+            if (linesByEnds[bucket] == null) linesByEnds[bucket] = new BitSet();
+            linesByEnds[bucket].set(i);
+        }
+
+        stationLayer = new byte[stations.size()];
+        for (int i = 0; i < stations.size(); i++) {
+            int k = layerOf(stations.get(i).path("pos").path("z").asDouble());
+            stationLayer[i] = (byte) k;
+            if (k >= 0) stationsByLayer[k].set(i);
+        }
+    }
+
+    public static LayerPartition of(JsonNode output) {
+        return new LayerPartition(output);
+    }
+
+    /** The output snapshot this partition was built from. */
+    public JsonNode output() {
+        return output;
+    }
+
+    /** Addresses at the selected layers, each with a "layer" field added (shallow copies). */
+    public ArrayNode addresses(int layerMask) {
+        return annotated(addresses, addressesByLayer, addressLayer, layerMask);
+    }
+
+    /** Stations at the selected layers, each with a "layer" field added (shallow copies). */
+    public ArrayNode stations(int layerMask) {
+        return annotated(stations, stationsByLayer, stationLayer, layerMask);
+    }
+
+    /** Lines whose two endpoints are both addresses at selected layers. */
+    public ArrayNode lines(int layerMask) {
+        BitSet selected = new BitSet();
+        for (int bucket = 0; bucket < linesByEnds.length; bucket++) {
+            if (linesByEnds[bucket] == null) continue;
+            int from = bucket >>> LAYERS, to = bucket & ((1 << LAYERS) - 1);
+            if ((from & layerMask) != 0 && (to & layerMask) != 0) selected.or(linesByEnds[bucket]);
+        }
+        ArrayNode out = JsonNodeFactory.instance.arrayNode(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) out.add(lines.get(i));
+        return out;
+    }
+
+    public ArrayNode allLines() {
+        ArrayNode out = JsonNodeFactory.instance.arrayNode(lines.size());
+        for (JsonNode l : lines) out.add(l);
+        return out;
+    }
+
+    /** Size of the partition's own index; the output snapshot it holds is not included. */
+    public long estimatedBytes() {
+        long bytes = 256 + addressLayer.length + stationLayer.length;
+        for (BitSet b : addressesByLayer) bytes += b.size() / 8;
+        for (BitSet b : stationsByLayer) bytes += b.size() / 8;
+        for (BitSet b : linesByEnds) if (b != null) bytes += b.size() / 8;
+        return bytes;
+    }
+
+    private static ArrayNode annotated(JsonNode source, BitSet[] byLayer, byte[] layerOf, int layerMask) {
+        BitSet selected = new BitSet();
+        for (int k = 0; k < LAYERS; k++) {
+            if ((layerMask & (1 << k)) != 0) selected.or(byLayer[k]);
+        }
+        ArrayNode out = JsonNodeFactory.instance.arrayNode(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            ObjectNode node = JsonNodeFactory.instance.objectNode();
+            node.setAll((ObjectNode) source.get(i));
+            node.put("layer", LAYER_NAMES[layerOf[i]]);
+            out.add(node);
+        }
+        return out;
+    }
+
+    private static int layerOf(double z) {
+        for (int k = 0; k < LAYERS; k++) {
+            if (Math.abs(z - LAYER_Z[k]) < Z_TOLERANCE) return k;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,167 @@
+package demo.amhsdatagen.service;
+
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Seeks into a user's OHT log by time window and vehicle without loading the whole log.
+ *
+ * Chunks are pruned in the database: first by their [start_time, end_time] range, and, when
+ * vehicles are given, by the per-chunk vehicle index (seq, MCP tag, first/last time). Only the
+ * remaining chunks are read. Encoded chunks are scanned column by column, and a line's text is
+ * rendered only for the records returned.
+ *
+ * Results are in log order (chunk seq, then line), which is time order within a generation run.
+ * Paging uses an opaque "seq:line" cursor that points just past the last returned record.
+ */
+@Service
+public class OhtLogQueryService {
+
+    public static final int DEFAULT_LIMIT = 1000;
+    public static final int MAX_LIMIT = 10_000;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSS]");
+
+    public static class Query {
+        // inclusive bounds in epoch ms; null for open
+        public Long fromTime;
+        public Long toTime;
+        // OHT ids or MCP tags ("OHT_12", "OHT12", "12"); empty for all vehicles
+        public Set<String> vehicles = new LinkedHashSet<>();
+        public int limit = DEFAULT_LIMIT;
+        public String cursor;
+        public boolean includeText = true;
+    }
+
+    /** Receives matching records in log order; returns false to stop. */
+    @FunctionalInterface
+    interface RecordSink {
+        boolean accept(long seq, UdpLogCodec.Line line, long time);
+    }
+
+    private final ConfigService configService;
+    private final UserTableService userTableService;
+
+    public OhtLogQueryService(ConfigService configService, UserTableService userTableService) {
+        this.configService = configService;
+        this.userTableService = userTableService;
+    }
+
+    public Map<String, Object> query(String userId, Query q) {
+        int limit = Math.max(1, Math.min(MAX_LIMIT, q.limit));
+        List<Map<String, Object>> records = new ArrayList<>();
+        String[] nextCursor = {null};
+        int chunks = scan(userId, q.fromTime, q.toTime, q.vehicles, q.cursor, (seq, line, time) -> {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("time", time);
+            r.put("ohtId", line.mcp);
+            r.put("current", line.current);
+            r.put("next", line.next);
+            r.put("destination", line.destination);
+            if (q.includeText) r.put("text", line.text());
+            records.add(r);
+            if (records.size() < limit) return true;
+            nextCursor[0] = seq + ":" + (line.index + 1);
+            return false;
+        });
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("records", records);
+        result.put("count", records.size());
+        result.put("nextCursor", nextCursor[0]);
+        result.put("chunksScanned", chunks);
+        return result;
+    }
+
+    /**
+     * Visits the records that match the window and vehicles, starting at the cursor.
+     * Returns the number of chunks read.
+     */
+    int scan(String userId, Long fromTime, Long toTime, Set<String> vehicles, String cursor, RecordSink sink) {
+        Set<String> mcps = mcpTags(vehicles);
+        long[] at = parseCursor(cursor);
+        UdpLogCodec.WallClock clock = new UdpLogCodec.WallClock(ZoneId.systemDefault());
+        boolean[] stopped = {false};
+        int chunks = 0;
+
+        // seq 0: a legacy single-value log that has not been migrated to chunks yet
+        if (at[0] == 0) {
+            Optional<String> legacy = configService.loadLegacyOhtLog(userId);
+            if (legacy.isPresent()) {
+                chunks++;
+                UdpLogCodec.scanText(legacy.get(), filter(0, at, fromTime, toTime, mcps, clock, sink, stopped));
+                if (stopped[0]) return chunks;
+            }
+        }
+        for (UserTableService.ChunkInfo info : userTableService.findOhtLogChunks(userId, fromTime, toTime, mcps, Math.max(1, at[0]))) {
+            Optional<UserTableService.StoredChunk> chunk = userTableService.readStoredOhtLogChunk(userId, info.getSeq());
+            if (chunk.isEmpty()) continue;
+            chunks++;
+            UdpLogCodec.LineVisitor visitor = filter(info.getSeq(), at, fromTime, toTime, mcps, clock, sink, stopped);
+            UserTableService.StoredChunk c = chunk.get();
+            if (c.getData() != null) UdpLogCodec.scan(c.getData(), visitor);
+            else if (c.getContent() != null) UdpLogCodec.scanText(c.getContent(), visitor);
+            if (stopped[0]) break;
+        }
+        return chunks;
+    }
+
+    private static UdpLogCodec.LineVisitor filter(long seq, long[] cursor, Long fromTime, Long toTime, Set<String> mcps,
+                                                  UdpLogCodec.WallClock clock, RecordSink sink, boolean[] stopped) {
+        int firstLine = seq == cursor[0] ? (int) cursor[1] : 0;
+        return line -> {
+            if (!line.record || line.index < firstLine) return true;
+            if (!mcps.isEmpty() && !mcps.contains(line.mcp)) return true;
+            long time = clock.toEpochMillis(line.wallTime);
+            if ((fromTime != null && time < fromTime) || (toTime != null && time > toTime)) return true;
+            if (sink.accept(seq, line, time)) return true;
+            stopped[0] = true;
+            return false;
+        };
+    }
+
+    // Vehicle ids as they appear in the log's MCP field
+    static Set<String> mcpTags(Set<String> vehicles) {
+        Set<String> tags = new LinkedHashSet<>();
+        if (vehicles == null) return tags;
+        UdpLogFormatter formatter = new UdpLogFormatter();
+        for (String v : vehicles) {
+            if (v != null && !v.isBlank()) tags.add(new String(formatter.mcpTag(v.trim())));
+        }
+        return tags;
+    }
+
+    private static long[] parseCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) return new long[] {0, 0};
+        int colon = cursor.indexOf(':');
+        try {
+            if (colon > 0) return new long[] {Long.parseLong(cursor.substring(0, colon)), Long.parseLong(cursor.substring(colon + 1))};
+        } catch (NumberFormatException ignored) {
+            // fall through
+        }
+        throw new IllegalArgumentException("invalid cursor: " + cursor);
+    }
+
+    /** Epoch ms, or "yyyy-MM-dd HH:mm:ss[.SSS]" (a 'T' separator is accepted) in the server time zone. */
+    public static Long parseTime(String value) {
+        if (value == null || value.isBlank()) return null;
+        String v = value.trim();
+        if (v.chars().allMatch(Character::isDigit)) return Long.parseLong(v);
+        try {
+            return LocalDateTime.parse(v.replace('T', ' '), TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid time: " + value);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import demo.amhsdatagen.layout.LayoutDelta;
+import demo.amhsdatagen.layout.LayoutGraph;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -53,6 +55,7 @@ public class StationsService {
         // 3) For each selected boundary create 3 stations by Y interval
         System.out.println("🏭 Generating stations for each selected boundary...");
         ArrayNode newStations = objectMapper.createArrayNode();
+        LayoutGraph stationLayout = new LayoutGraph(0, 0);
         long stationId = GenerationConfig.STATION_ID_START;
         int stationCount = 0;
         for (double[] b : selected) {
@@ -76,6 +79,8 @@ public class StationsService {
                 pos.put("y", round1(yPos));
                 pos.put("z", round1(z));
                 newStations.add(s);
+                stationLayout.addStation(stationId, stationName(stationId), "1", stationPort(stationId),
+                        round1(centerX), round1(yPos), round1(z));
                 stationId++;
                 stationCount++;
             }
@@ -84,9 +89,11 @@ public class StationsService {
 
         System.out.println("💾 Saving stations to database...");
         // 4) output JSON에 stations 병합 후 DB 저장
-        ObjectNode outputObj = (output instanceof ObjectNode) ? (ObjectNode) output : objectMapper.createObjectNode();
+        // 기존 output에 stations만 교체한 경우 변경분을 함께 전달 (증분 검사용)
+        boolean merged = output instanceof ObjectNode;
+        ObjectNode outputObj = merged ? (ObjectNode) output : objectMapper.createObjectNode();
         outputObj.set("stations", newStations);
-        configService.saveOutputToDb(userId, outputObj);
+        configService.saveOutputToDb(userId, outputObj, merged ? LayoutDelta.replacedStations(stationLayout) : null);
         
         System.out.println("📊 Final data summary:");
         System.out.println("   - Total Stations Generated: " + stationCount);
@@ -0,0 +1,422 @@
+package demo.amhsdatagen.service;
+
+import demo.amhsdatagen.layout.IndexedMinHeap;
+import demo.amhsdatagen.layout.LayoutGraph;
+import demo.amhsdatagen.layout.RoutingGraph;
+import demo.amhsdatagen.layout.SpatialIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running background traffic per user, for soak tests.
+ *
+ * A fixed fleet keeps driving random station-to-station jobs on the user's layout. When a
+ * vehicle reaches its destination it is given a new one. Records are produced in time order
+ * (one heap entry per vehicle, as in the bulk generator) and handed to a sink thread in
+ * batches through a bounded queue. When the sink falls behind, the generator waits on the
+ * queue (backpressure) rather than buffering.
+ *
+ * The sink either appends the records to the user's log store or sends them over UDP.
+ *
+ * Pacing: with a target rate, records leave at that many per second and each record is stamped
+ * with its release time, so the log timestamps show the rate that was sent. Step intervals are
+ * scaled so each vehicle steps every fleet / rate seconds on average. Without a target rate, records
+ * follow their own timestamps (each vehicle steps every 300-400 ms), so the rate is set by the fleet size.
+ *
+ * Memory is fixed by the fleet size, the routes in flight and the queue capacity. It does not
+ * grow with running time. The log store does grow when it is the sink, so a LOG run is capped
+ * at maxRecords records (app.traffic.log.max-records by default) and ends as FINISHED once they
+ * are stored. Unbounded runs are UDP only.
+ */
+@Service
+public class TrafficGeneratorService {
+
+    public enum Sink { LOG, UDP }
+
+    public static class Options {
+        public int fleetSize = 20;
+        // records per second; 0 paces by the record timestamps
+        public double messagesPerSecond;
+        public Sink sink = Sink.LOG;
+        // records to produce before the run finishes; 0 runs until stopped with UDP and means
+        // app.traffic.log.max-records with LOG
+        public long maxRecords;
+        public String host;
+        public int port;
+    }
+
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int JOB_ATTEMPTS = 8;
+    private static final long IDLE_RETRY_MS = 1000;
+    private static final double MEAN_STEP_MS = (GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + GenerationConfig.UDP_TIME_INCREMENT_MAX_MS) / 2.0;
+
+    private static final class Batch {
+        final String text;
+        final int lines;
+        final long firstTime;
+        final long lastTime;
+
+        Batch(String text, int lines, long firstTime, long lastTime) {
+            this.text = text;
+            this.lines = lines;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+    }
+
+    private final class Job {
+        final String userId;
+        final Options options;
+        final RoutingGraph graph;
+        final int[] stops;
+        final InetSocketAddress target;
+        final ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<>(GenerationConfig.UDP_TRAFFIC_QUEUE_BATCHES);
+        final long startedAt = System.currentTimeMillis();
+        volatile boolean stopRequested;
+        // set once the producer has handed its last batch for maxRecords
+        volatile boolean limitReached;
+        volatile String state = "RUNNING";
+        volatile String error;
+        volatile long generated;
+        volatile long delivered;
+        volatile long jobsAssigned;
+        volatile long noRoute;
+        volatile long backpressureNanos;
+        volatile long finishedAt;
+        Thread producer;
+        Thread consumer;
+
+        Job(String userId, Options options, RoutingGraph graph, int[] stops, InetSocketAddress target) {
+            this.userId = userId;
+            this.options = options;
+            this.graph = graph;
+            this.stops = stops;
+            this.target = target;
+        }
+
+        // ---------------------------------------------------------------- generator side
+
+        // per-vehicle state, touched only by the producer thread
+        private int[][] route;
+        private int[] step;
+        private int[] dest;
+        private long[] time;
+        private RoutingGraph.Search search;
+        private SplittableRandom rnd;
+        private double stepScale;
+
+        void produce() {
+            int fleet = options.fleetSize;
+            route = new int[fleet][];
+            step = new int[fleet];
+            dest = new int[fleet];
+            time = new long[fleet];
+            search = graph.newSearch();
+            rnd = new SplittableRandom();
+            String[] ohtId = new String[fleet];
+            UdpLogFormatter out = new UdpLogFormatter();
+            IndexedMinHeap events = new IndexedMinHeap(fleet);
+
+            // with a target rate, vehicles step every fleet / rate seconds on average
+            stepScale = options.messagesPerSecond > 0 ? fleet * 1000.0 / (options.messagesPerSecond * MEAN_STEP_MS) : 1.0;
+            long logOrigin = System.currentTimeMillis();
+            for (int v = 0; v < fleet; v++) {
+                ohtId[v] = "OHT" + (v + 1);
+                time[v] = logOrigin + Math.round(rnd.nextInt(GenerationConfig.UDP_TIME_INCREMENT_MAX_MS) * stepScale);
+                assign(v, graph.address(stops[rnd.nextInt(stops.length)]));
+                events.pushOrDecrease(v, time[v]);
+            }
+
+            double nanosPerMessage = options.messagesPerSecond > 0 ? 1e9 / options.messagesPerSecond : 0;
+            long limit = options.maxRecords;
+            long origin = System.nanoTime();
+            long produced = 0;
+            int batchLines = 0;
+            long batchFirst = 0, batchLast = 0;
+            long batchStarted = origin;
+            try {
+                while (!stopRequested && (limit == 0 || produced < limit)) {
+                    int v = events.pop();
+                    long t = time[v];
+                    int[] r = route[v];
+                    int i = step[v];
+                    if (r.length > 1) {
+                        // with a target rate the record carries its release time on the pacing clock
+                        long stamp = t;
+                        if (nanosPerMessage > 0) {
+                            long due = origin + (long) (produced * nanosPerMessage);
+                            UdpEmitter.waitUntil(due);
+                            stamp = logOrigin + (due - origin) / 1_000_000L;
+                        } else {
+                            UdpEmitter.waitUntil(origin + (t - logOrigin) * 1_000_000L);
+                        }
+                        if (stopRequested) break;
+                        if (batchLines == 0) {
+                            batchFirst = stamp;
+                            batchStarted = System.nanoTime();
+                        }
+                        out.appendLine(stamp, r[i], r[i + 1], dest[v], ohtId[v]);
+                        batchLast = stamp;
+                        batchLines++;
+                        produced++;
+                        step[v] = ++i;
+                        time[v] = t + stepMillis(rnd, stepScale);
+                        if (i == r.length - 1) assign(v, r[i]);
+                    } else {
+                        // parked after a failed assignment; try again from where it stands
+                        assign(v, r[0]);
+                    }
+                    events.pushOrDecrease(v, time[v]);
+
+                    if (batchLines >= GenerationConfig.UDP_TRAFFIC_BATCH_LINES
+                            || (batchLines > 0 && System.nanoTime() - batchStarted >= FLUSH_NANOS)) {
+                        if (!hand(new Batch(out.toString(), batchLines, batchFirst, batchLast))) break;
+                        out.clear();
+                        batchLines = 0;
+                        generated = produced;
+                    }
+                }
+                if (limit > 0 && produced >= limit && !stopRequested) {
+                    if (batchLines > 0) hand(new Batch(out.toString(), batchLines, batchFirst, batchLast));
+                    limitReached = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+            generated = produced;
+        }
+
+        // New random job from fromAddress. When no stop is reachable within a few attempts the
+        // vehicle parks there (one-address route) and retries after IDLE_RETRY_MS.
+        private void assign(int v, int fromAddress) {
+            step[v] = 0;
+            for (int attempt = 0; attempt < JOB_ATTEMPTS; attempt++) {
+                int to = graph.address(stops[rnd.nextInt(stops.length)]);
+                if (to == fromAddress) continue;
+                int[] path = udpGeneratorService.route(search, fromAddress, to);
+                if (path != null && path.length > 1) {
+                    route[v] = path;
+                    dest[v] = to;
+                    jobsAssigned++;
+                    return;
+                }
+            }
+            noRoute++;
+            route[v] = new int[] {fromAddress};
+            dest[v] = fromAddress;
+            time[v] += IDLE_RETRY_MS;
+        }
+
+        // Queues a batch, waiting while the queue is full; false when stopped meanwhile
+        private boolean hand(Batch batch) throws InterruptedException {
+            while (!queue.offer(batch)) {
+                long waitStart = System.nanoTime();
+                boolean queued = queue.offer(batch, 100, TimeUnit.MILLISECONDS);
+                backpressureNanos += System.nanoTime() - waitStart;
+                if (queued) return true;
+                if (stopRequested) return false;
+            }
+            return true;
+        }
+
+        // ---------------------------------------------------------------- sink side
+
+        void consume() {
+            try (UdpEmitter emitter = options.sink == Sink.UDP ? new UdpEmitter(target, 64, 0) : null) {
+                // batches still queued when a stop is requested are dropped; after maxRecords
+                // the queue is drained first
+                while (!stopRequested && !(limitReached && queue.isEmpty())) {
+                    Batch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch == null || stopRequested) continue;
+                    if (emitter != null) emitter.sendLines(batch.text);
+                    else configService.saveOhtLogToDb(userId, batch.text, batch.firstTime, batch.lastTime);
+                    delivered += batch.lines;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                if (!stopRequested) fail(e);
+            }
+        }
+
+        void fail(Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            state = "FAILED";
+            stopRequested = true;
+            Thread p = producer;
+            if (p != null && p != Thread.currentThread()) p.interrupt();
+        }
+
+        void finish() {
+            if (!"FAILED".equals(state)) state = limitReached ? "FINISHED" : "STOPPED";
+            finishedAt = System.currentTimeMillis();
+            System.out.println("🛑 Traffic generator " + state.toLowerCase(Locale.ROOT) + " for user " + userId
+                    + ": generated=" + generated + ", delivered=" + delivered);
+        }
+
+        boolean running() {
+            return finishedAt == 0;
+        }
+
+        Map<String, Object> status() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("state", state);
+            m.put("fleetSize", options.fleetSize);
+            m.put("stops", stops.length);
+            m.put("sink", options.sink.name().toLowerCase(Locale.ROOT));
+            m.put("target", target != null ? target.getHostString() + ":" + target.getPort() : null);
+            m.put("targetRate", options.messagesPerSecond > 0 ? options.messagesPerSecond : null);
+            m.put("maxRecords", options.maxRecords > 0 ? options.maxRecords : null);
+            m.put("generated", generated);
+            m.put("delivered", delivered);
+            m.put("queuedBatches", queue.size());
+            m.put("queueCapacity", GenerationConfig.UDP_TRAFFIC_QUEUE_BATCHES);
+            m.put("jobsAssigned", jobsAssigned);
+            m.put("noRoute", noRoute);
+            m.put("backpressureMs", TimeUnit.NANOSECONDS.toMillis(backpressureNanos));
+            long end = finishedAt == 0 ? System.currentTimeMillis() : finishedAt;
+            long uptime = Math.max(1, end - startedAt);
+            m.put("uptimeMs", uptime);
+            m.put("messagesPerSecond", Math.round(delivered * 1000.0 / uptime));
+            m.put("startedAt", startedAt);
+            m.put("finishedAt", finishedAt == 0 ? null : finishedAt);
+            m.put("error", error);
+            return m;
+        }
+    }
+
+    private final ConfigService configService;
+    private final UdpGeneratorService udpGeneratorService;
+    private final String defaultHost;
+    private final int defaultPort;
+    private final long defaultLogMaxRecords;
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public TrafficGeneratorService(ConfigService configService, UdpGeneratorService udpGeneratorService,
+                                   @Value("${app.udp.replay.host:127.0.0.1}") String defaultHost,
+                                   @Value("${app.udp.replay.port:3600}") int defaultPort,
+                                   @Value("${app.traffic.log.max-records:1000000}") long defaultLogMaxRecords) {
+        this.configService = configService;
+        this.udpGeneratorService = udpGeneratorService;
+        this.defaultHost = defaultHost;
+        this.defaultPort = defaultPort;
+        this.defaultLogMaxRecords = defaultLogMaxRecords;
+    }
+
+    /** Options with the configured UDP target; callers override what they need. */
+    public Options defaultOptions() {
+        Options o = new Options();
+        o.host = defaultHost;
+        o.port = defaultPort;
+        return o;
+    }
+
+    public static Sink parseSink(String sink) {
+        if (sink == null || sink.isBlank()) return Sink.LOG;
+        return switch (sink.trim().toLowerCase(Locale.ROOT)) {
+            case "log", "db", "store" -> Sink.LOG;
+            case "udp" -> Sink.UDP;
+            default -> throw new IllegalArgumentException("unknown sink: " + sink);
+        };
+    }
+
+    /** Starts continuous traffic for the user; fails if it is already running. */
+    public Map<String, Object> start(String userId, Options options) throws IOException {
+        if (options.fleetSize < 1) throw new IllegalArgumentException("fleetSize must be >= 1");
+        if (options.messagesPerSecond < 0) throw new IllegalArgumentException("messagesPerSecond must be >= 0");
+        if (options.maxRecords < 0) throw new IllegalArgumentException("maxRecords must be >= 0");
+        // the log store keeps every record, so a LOG run always has a cap (app.traffic.log.max-records unless given)
+        if (options.sink == Sink.LOG && options.maxRecords == 0) options.maxRecords = defaultLogMaxRecords;
+        if (options.sink == Sink.LOG && options.maxRecords <= 0) {
+            throw new IllegalArgumentException("the LOG sink needs maxRecords > 0; unbounded runs are UDP only");
+        }
+        InetSocketAddress target = null;
+        if (options.sink == Sink.UDP) {
+            if (options.port <= 0 || options.port > 65535) throw new IllegalArgumentException("invalid port: " + options.port);
+            target = new InetSocketAddress(options.host, options.port);
+            if (target.isUnresolved()) throw new IOException("unknown host: " + options.host);
+        }
+        RoutingGraph graph = udpGeneratorService.buildGraphFromOutput(userId);
+        if (graph.nodeCount() < 2) throw new IOException("layout has no routable lines");
+        int[] stops = stationNodes(graph, configService.getLayoutSnapshot(userId).orElse(null));
+
+        Job job = new Job(userId, options, graph, stops, target);
+        Job existing = jobs.compute(userId, (k, current) -> current != null && current.running() ? current : job);
+        if (existing != job) throw new IllegalStateException("traffic generator is already running for this user");
+        job.producer = new Thread(job::produce, "traffic-gen-" + userId);
+        job.consumer = new Thread(() -> {
+            try {
+                job.consume();
+            } finally {
+                job.stopRequested = true;
+                job.producer.interrupt();
+                try {
+                    job.producer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                job.finish();
+            }
+        }, "traffic-sink-" + userId);
+        job.producer.setDaemon(true);
+        job.consumer.setDaemon(true);
+        job.producer.start();
+        job.consumer.start();
+        System.out.println("🚚 Traffic generator started for user " + userId + ": fleet=" + options.fleetSize
+                + ", stops=" + stops.length + ", sink=" + options.sink);
+        return job.status();
+    }
+
+    /** Requests the user's traffic to stop; returns false when none is running. */
+    public boolean stop(String userId) {
+        Job job = jobs.get(userId);
+        if (job == null || !job.running()) return false;
+        job.stopRequested = true;
+        Thread p = job.producer;
+        if (p != null) p.interrupt();
+        return true;
+    }
+
+    /** Status of the user's current or last traffic run, or null when there has been none. */
+    public Map<String, Object> status(String userId) {
+        Job job = jobs.get(userId);
+        return job == null ? null : job.status();
+    }
+
+    // Routing nodes nearest to the layout's stations; every routing node when there are fewer than two
+    private static int[] stationNodes(RoutingGraph graph, LayoutGraph layout) {
+        if (layout != null && layout.stationCount() > 0 && layout.addressCount() > 0) {
+            SpatialIndex index = SpatialIndex.forAddresses(layout);
+            int[] nodes = new int[layout.stationCount()];
+            int n = 0;
+            for (int s = 0; s < layout.stationCount(); s++) {
+                int a = index.nearestOne(layout.stationX(s), layout.stationY(s), layout.stationZ(s),
+                        i -> graph.nodeOf((int) layout.addressId(i)) < 0);
+                if (a >= 0) nodes[n++] = graph.nodeOf((int) layout.addressId(a));
+            }
+            nodes = Arrays.stream(nodes, 0, n).distinct().toArray();
+            if (nodes.length >= 2) return nodes;
+        }
+        int[] all = new int[graph.nodeCount()];
+        for (int i = 0; i < all.length; i++) all[i] = i;
+        return all;
+    }
+
+    private static long stepMillis(SplittableRandom rnd, double scale) {
+        int ms = GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + rnd.nextInt(Math.max(1, GenerationConfig.UDP_TIME_INCREMENT_MAX_MS - GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + 1));
+        return Math.max(1, Math.round(ms * scale));
+    }
+}
@@ -0,0 +1,228 @@
+package demo.amhsdatagen.service;
+
+import demo.amhsdatagen.layout.LayoutGraph;
+import demo.amhsdatagen.layout.LongIntHashMap;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-OHT trajectories for the 2D/3D viewers, resolved to layout coordinates on the server.
+ *
+ * The log is read through {@link OhtLogQueryService#scan}, so time and vehicle filters prune
+ * chunks before any line is read. Each record's current address is mapped to its position;
+ * records on unknown addresses or outside the requested layers are skipped, and consecutive
+ * records at the same address collapse into one point.
+ *
+ * Decimation keeps memory bounded while streaming: a vehicle buffers at most 2 * maxPoints
+ * points; when the buffer fills, every other point is dropped and the sampling stride doubles.
+ * The final pass strides down to maxPoints and always keeps the vehicle's last point.
+ *
+ * Each trajectory is sent as parallel numeric arrays: times as ms offsets from the response's
+ * baseTime, and x/y/z coordinates.
+ */
+@Service
+public class TrajectoryService {
+
+    public static final int DEFAULT_MAX_POINTS = 1500;
+    public static final int MAX_MAX_POINTS = 100_000;
+
+    public static class Query {
+        // inclusive bounds in epoch ms; null for open
+        public Long fromTime;
+        public Long toTime;
+        // OHT ids or MCP tags; empty for all vehicles
+        public Set<String> vehicles = new LinkedHashSet<>();
+        // layout z levels to keep; empty for all
+        public Set<Double> layers = new LinkedHashSet<>();
+        // points per vehicle after decimation
+        public int maxPoints = DEFAULT_MAX_POINTS;
+        // at most one point per this many ms per vehicle; 0 for no time bucketing
+        public long minIntervalMs;
+    }
+
+    private final ConfigService configService;
+    private final OhtLogQueryService ohtLogQueryService;
+
+    public TrajectoryService(ConfigService configService, OhtLogQueryService ohtLogQueryService) {
+        this.configService = configService;
+        this.ohtLogQueryService = ohtLogQueryService;
+    }
+
+    public Map<String, Object> trajectories(String userId, Query q) throws IOException {
+        LayoutGraph layout = configService.getLayoutSnapshot(userId)
+                .orElseThrow(() -> new IOException("output not found in DB"));
+        int maxPoints = Math.max(2, Math.min(MAX_MAX_POINTS, q.maxPoints));
+        long minInterval = Math.max(0, q.minIntervalMs);
+
+        // address number (as logged) -> layout index; later duplicates win, as in the viewers
+        LongIntHashMap byAddress = new LongIntHashMap(layout.addressCount());
+        for (int i = 0; i < layout.addressCount(); i++) {
+            if (q.layers.isEmpty() || q.layers.contains(layout.z(i))) byAddress.put(layout.addressNumber(i), i);
+        }
+
+        Map<String, Track> tracks = new HashMap<>();
+        List<Track> order = new ArrayList<>();
+        long[] records = {0, 0}; // scanned, resolved
+        int chunks = ohtLogQueryService.scan(userId, q.fromTime, q.toTime, q.vehicles, null, (seq, line, time) -> {
+            records[0]++;
+            int at = byAddress.getOrDefault(line.current, -1);
+            if (at < 0) return true;
+            records[1]++;
+            Track t = tracks.get(line.mcp);
+            if (t == null) {
+                t = new Track(line.mcp, maxPoints);
+                tracks.put(line.mcp, t);
+                order.add(t);
+            }
+            t.offer(time, at, minInterval);
+            return true;
+        });
+
+        long baseTime = Long.MAX_VALUE;
+        for (Track t : order) baseTime = Math.min(baseTime, t.firstTime());
+        List<Map<String, Object>> vehicles = new ArrayList<>(order.size());
+        int points = 0;
+        for (Track t : order) {
+            t.finish(maxPoints);
+            vehicles.add(t.toJson(layout, baseTime));
+            points += t.size;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("baseTime", order.isEmpty() ? null : baseTime);
+        result.put("maxPoints", maxPoints);
+        result.put("vehicles", vehicles);
+        result.put("vehicleCount", vehicles.size());
+        result.put("points", points);
+        result.put("recordsScanned", records[0]);
+        result.put("recordsResolved", records[1]);
+        result.put("chunksScanned", chunks);
+        return result;
+    }
+
+    /** Layer names as used by the viewers ("z6022") or plain z values. */
+    public static Set<Double> parseLayers(String value) {
+        Set<Double> layers = new LinkedHashSet<>();
+        if (value == null || value.isBlank()) return layers;
+        for (String s : value.split(",")) {
+            String v = s.trim();
+            if (v.isEmpty()) continue;
+            if (v.charAt(0) == 'z' || v.charAt(0) == 'Z') v = v.substring(1);
+            try {
+                layers.add(Double.parseDouble(v));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid layer: " + s);
+            }
+        }
+        return layers;
+    }
+
+    // One vehicle's buffered points, decimated as they arrive
+    private static final class Track {
+        final String id;
+        final int maxCapacity;
+        long[] time;
+        int[] node;
+        int size;
+        int stride = 1;
+        long seen;        // points that passed the address/interval filters
+        long lastTime;    // the latest point, kept so the path ends where the vehicle ended
+        int lastNode = -1;
+        long bucketTime = Long.MIN_VALUE;
+
+        Track(String id, int maxPoints) {
+            this.id = id;
+            this.maxCapacity = 2 * maxPoints;
+            int capacity = Math.min(maxCapacity, 256);
+            time = new long[capacity];
+            node = new int[capacity];
+        }
+
+        void offer(long t, int at, long minInterval) {
+            if (at == lastNode) return;
+            lastNode = at;
+            lastTime = t;
+            // within the current time bucket it only counts as a possible final point
+            if (minInterval > 0 && bucketTime != Long.MIN_VALUE && t - bucketTime < minInterval) return;
+            bucketTime = t;
+            if (seen++ % stride != 0) return;
+            if (size == time.length) grow();
+            time[size] = t;
+            node[size] = at;
+            size++;
+        }
+
+        // Doubles the buffer up to 2 * maxPoints; after that halves the points and the sampling rate
+        private void grow() {
+            if (time.length < maxCapacity) {
+                int n = Math.min(maxCapacity, time.length * 2);
+                time = Arrays.copyOf(time, n);
+                node = Arrays.copyOf(node, n);
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < size; i += 2, kept++) {
+                time[kept] = time[i];
+                node[kept] = node[i];
+            }
+            size = kept;
+            stride *= 2;
+        }
+
+        void finish(int maxPoints) {
+            if (size == 0 || time[size - 1] != lastTime || node[size - 1] != lastNode) {
+                if (size == time.length) {
+                    time = Arrays.copyOf(time, size + 1);
+                    node = Arrays.copyOf(node, size + 1);
+                }
+                time[size] = lastTime;
+                node[size] = lastNode;
+                size++;
+            }
+            if (size <= maxPoints) return;
+            // stride over all but the last point, then append the last point
+            int step = (size - 2) / (maxPoints - 1) + 1;
+            int kept = 0;
+            for (int i = 0; i < size - 1; i += step, kept++) {
+                time[kept] = time[i];
+                node[kept] = node[i];
+            }
+            time[kept] = time[size - 1];
+            node[kept] = node[size - 1];
+            size = kept + 1;
+        }
+
+        long firstTime() {
+            return size > 0 ? time[0] : lastTime;
+        }
+
+        Map<String, Object> toJson(LayoutGraph layout, long baseTime) {
+            long[] t = new long[size];
+            double[] x = new double[size];
+            double[] y = new double[size];
+            double[] z = new double[size];
+            for (int i = 0; i < size; i++) {
+                t[i] = time[i] - baseTime;
+                x[i] = layout.x(node[i]);
+                y[i] = layout.y(node[i]);
+                z[i] = layout.z(node[i]);
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", id);
+            m.put("t", t);
+            m.put("x", x);
+            m.put("y", y);
+            m.put("z", z);
+            return m;
+        }
+    }
+}
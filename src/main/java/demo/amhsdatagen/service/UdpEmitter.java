@@ -0,0 +1,166 @@
+package demo.amhsdatagen.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends UDP log records as datagrams (one record per datagram, without the line terminator)
+ * through a connected NIO DatagramChannel.
+ *
+ * Records are encoded into one reusable direct buffer. The clock, the rate limiter and the stop
+ * check run once per batch, not once per packet. With a rate limit, a token bucket caps the
+ * packet rate and allows bursts of at most one batch. Not thread-safe: one emitter per sending thread.
+ *
+ * Waits park the sending thread instead of relying on interrupts: interrupting a thread that
+ * uses the channel would close the channel. An owner that wants to stop early sets its stop
+ * flag and unparks the thread; see {@link #waitUntil(long, BooleanSupplier)}.
+ */
+public final class UdpEmitter implements Closeable {
+
+    private final DatagramChannel channel;
+    private final ByteBuffer buf;
+    private final int batchSize;
+    private final double nanosPerPacket;
+    private final BooleanSupplier stopped;
+
+    private final long startNanos = System.nanoTime();
+    private long allowanceNanos;
+    private int inBatch;
+    private long sent;
+    private long bytes;
+    private long dropped;
+
+    /**
+     * @param maxPacketsPerSecond 0 or less for no limit
+     */
+    public UdpEmitter(InetSocketAddress target, int batchSize, double maxPacketsPerSecond) throws IOException {
+        this(target, batchSize, maxPacketsPerSecond, () -> false);
+    }
+
+    /**
+     * @param stopped checked while the rate limiter waits; when it turns true the wait ends early
+     */
+    public UdpEmitter(InetSocketAddress target, int batchSize, double maxPacketsPerSecond, BooleanSupplier stopped) throws IOException {
+        this.stopped = stopped;
+        this.channel = DatagramChannel.open();
+        this.channel.connect(target);
+        this.buf = ByteBuffer.allocateDirect(64 * 1024);
+        this.batchSize = Math.max(1, batchSize);
+        this.nanosPerPacket = maxPacketsPerSecond > 0 ? 1e9 / maxPacketsPerSecond : 0;
+        this.allowanceNanos = startNanos;
+    }
+
+    /**
+     * Sends one record; returns true when the current batch is complete. Records that do not
+     * fit in a datagram, or are refused by the target with port-unreachable, count as dropped.
+     */
+    public boolean send(CharSequence record) throws IOException {
+        buf.clear();
+        if (!encode(record)) {
+            dropped++;
+        } else {
+            buf.flip();
+            int size = buf.remaining();
+            try {
+                channel.write(buf);
+                bytes += size;
+                sent++;
+            } catch (PortUnreachableException e) {
+                // ICMP from an earlier datagram (nobody listening yet); UDP is fire-and-forget
+                dropped++;
+            }
+        }
+        if (++inBatch < batchSize) return false;
+        inBatch = 0;
+        throttle();
+        return true;
+    }
+
+    /** Sends every non-empty line of a block of log text; returns the number of lines. */
+    public int sendLines(String text) throws IOException {
+        CharBuffer line = CharBuffer.wrap(text);
+        int n = text.length();
+        int lines = 0;
+        for (int pos = 0; pos < n; ) {
+            int eol = text.indexOf('\n', pos);
+            if (eol < 0) eol = n;
+            int end = eol > pos && text.charAt(eol - 1) == '\r' ? eol - 1 : eol;
+            if (end > pos) {
+                line.clear().position(pos).limit(end);
+                send(line);
+                lines++;
+            }
+            pos = eol + 1;
+        }
+        return lines;
+    }
+
+    /** Parks until the given System.nanoTime() deadline (used for log-time pacing). */
+    public static void waitUntil(long deadlineNanos) {
+        Thread current = Thread.currentThread();
+        waitUntil(deadlineNanos, current::isInterrupted);
+    }
+
+    /**
+     * Parks until the deadline or until stop returns true, whichever comes first; returns false
+     * when stopped. Another thread ends the wait by making stop true and then calling
+     * LockSupport.unpark on the waiting thread.
+     */
+    public static boolean waitUntil(long deadlineNanos, BooleanSupplier stop) {
+        long wait;
+        while (!stop.getAsBoolean()) {
+            if ((wait = deadlineNanos - System.nanoTime()) <= 0) return true;
+            LockSupport.parkNanos(wait);
+        }
+        return false;
+    }
+
+    public long sent() { return sent; }
+    public long bytes() { return bytes; }
+    public long dropped() { return dropped; }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Token bucket: each batch costs batchSize * nanosPerPacket of allowance
+    private void throttle() {
+        if (nanosPerPacket == 0) return;
+        long now = System.nanoTime();
+        // idle time refills at most one batch worth of burst
+        allowanceNanos = Math.max(allowanceNanos, now - (long) (batchSize * nanosPerPacket));
+        allowanceNanos += (long) (batchSize * nanosPerPacket);
+        waitUntil(allowanceNanos, stopped);
+    }
+
+    // ASCII fast path; anything else goes through the UTF-8 encoder. False if it does not fit.
+    private boolean encode(CharSequence s) {
+        int n = s.length();
+        if (n > buf.capacity()) return false;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                buf.clear();
+                byte[] b = s.toString().getBytes(StandardCharsets.UTF_8);
+                if (b.length > buf.capacity()) return false;
+                buf.put(b);
+                return true;
+            }
+            buf.put((byte) c);
+        }
+        return true;
+    }
+}
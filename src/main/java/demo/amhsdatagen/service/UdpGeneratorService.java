@@ -1,45 +1,67 @@
 package demo.amhsdatagen.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import demo.amhsdatagen.layout.IndexedMinHeap;
+import demo.amhsdatagen.layout.LayoutGraph;
+import demo.amhsdatagen.layout.RoutingGraph;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 @Service
 public class UdpGeneratorService {
 
+    private static final int[] NO_PATH = new int[0];
+
     private final ConfigService configService;
 
-    public UdpGeneratorService(ConfigService configService) {
+    // Built routing graphs per user, valid while the user's layout version is unchanged
+    private final VersionedLruCache<String, RoutingGraph> routingCache;
+
+    // true: least total track length (A*), false: fewest hops (BFS)
+    private final boolean weightedRouting;
+
+    public UdpGeneratorService(ConfigService configService,
+                               @Value("${app.routing.cache.max-bytes:67108864}") long routingCacheMaxBytes,
+                               @Value("${app.routing.weighted:true}") boolean weightedRouting) {
         this.configService = configService;
+        this.weightedRouting = weightedRouting;
+        this.routingCache = new VersionedLruCache<>("routing", routingCacheMaxBytes, RoutingGraph::estimatedBytes);
+    }
+
+    public Map<String, Object> routingCacheStats() {
+        return routingCache.stats();
     }
 
     public Result runGenerate(String userId, int startAddress, int destinationAddress, String ohtId) throws IOException {
         // Build address graph from layout.output (DB)
-        Map<Integer, List<Integer>> graph = buildGraphFromOutput(userId);
+        RoutingGraph graph = buildGraphFromOutput(userId);
 
-        List<Integer> path = bfsShortestPath(graph, startAddress, destinationAddress);
-        if (path == null || path.size() < 2) throw new IOException("No path found between addresses");
+        int[] path = route(graph.newSearch(), startAddress, destinationAddress);
+        if (path == null || path.length < 2) throw new IOException("No path found between addresses");
 
         // Generate only new OHT track log lines (append happens in ConfigService)
-        StringBuilder buf = new StringBuilder();
+        UdpLogFormatter buf = new UdpLogFormatter();
         long now = System.currentTimeMillis();
+        long startTime = now, endTime = now;
         Random rnd = new Random();
-        for (int i = 0; i < path.size() - 1; i++) {
-            int curr = path.get(i);
-            int next = path.get(i + 1);
-            String line = formatUdpLog(now, curr, next, destinationAddress, ohtId);
-            buf.append(line).append('\n');
+        for (int i = 0; i < path.length - 1; i++) {
+            int curr = path[i];
+            int next = path[i + 1];
+            buf.appendLine(now, curr, next, destinationAddress, ohtId);
+            endTime = now;
             int inc = GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + rnd.nextInt(Math.max(1, GenerationConfig.UDP_TIME_INCREMENT_MAX_MS - GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + 1));
             now += inc;
         }
         String content = buf.toString();
-        configService.saveOhtLogToDb(userId, content);
+        configService.saveOhtLogToDb(userId, content, startTime, endTime);
 
         Result r = new Result();
-        r.logPath = "db://" + userId + "_amhs_data:oht_track.datalog";
-        r.summary = "OHT track entries=" + (path.size() - 1) + ", saved to DB" + (ohtId!=null? (", id="+ohtId): "");
+        r.logPath = "db://" + userId + "_oht_log";
+        r.summary = "OHT track entries=" + (path.length - 1) + ", saved to DB" + (ohtId!=null? (", id="+ohtId): "");
         r.content = content;
         return r;
     }
@@ -47,137 +69,137 @@ public class UdpGeneratorService {
     public Result runGenerateBulk(String userId, java.util.List<Request> entries) throws IOException {
         if (entries == null || entries.isEmpty()) throw new IOException("no entries");
         // Build address graph from layout.output (DB) once
-        Map<Integer, List<Integer>> graph = buildGraphFromOutput(userId);
-
-        // Compute edge lists per OHT
-        List<List<int[]>> edgeLists = new ArrayList<>();
-        List<String> ohtIds = new ArrayList<>();
-        for (Request r : entries) {
-            List<Integer> path = bfsShortestPath(graph, r.startAddress, r.destinationAddress);
-            if (path == null || path.size() < 2) { edgeLists.add(java.util.Collections.emptyList()); ohtIds.add(r.ohtId); continue; }
-            List<int[]> edges = new ArrayList<>();
-            for (int i = 0; i < path.size() - 1; i++) edges.add(new int[]{path.get(i), path.get(i+1), r.destinationAddress});
-            edgeLists.add(edges); ohtIds.add(r.ohtId);
+        RoutingGraph graph = buildGraphFromOutput(userId);
+
+        // Compute paths per OHT (in parallel for large requests); paths[k] belongs to entries[k]
+        int n = entries.size();
+        int[][] paths = routeAll(graph, entries);
+        int[] dests = new int[n];
+        List<String> ohtIds = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            Request r = entries.get(k);
+            dests[k] = r.destinationAddress;
+            ohtIds.add(r.ohtId);
         }
 
-        // Interleaved write (simultaneous tick per OHT) -> DB buffer
-        StringBuilder out = new StringBuilder();
+        // k-way merge of the per-OHT event streams, ordered by each OHT's next timestamp.
+        // Every OHT has its own clock and its own random step interval; ties go to the lower
+        // request index. Finished OHTs leave the heap, so the cost is O(events * log N).
+        UdpLogFormatter out = new UdpLogFormatter();
         long baseNow = System.currentTimeMillis();
-        Random rnd = new Random();
-        int n = edgeLists.size();
+        long endTime = baseNow;
+        SplittableRandom rnd = new SplittableRandom();
         long[] nowPerOht = new long[n];
         int[] idxPerOht = new int[n];
-        for (int i = 0; i < n; i++) nowPerOht[i] = baseNow;
-        int remaining = edgeLists.stream().mapToInt(List::size).sum();
-        while (remaining > 0) {
-            // one tick: all OHTs advance one step (if available)
-            int incTick = GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + rnd.nextInt(Math.max(1, GenerationConfig.UDP_TIME_INCREMENT_MAX_MS - GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + 1));
-            for (int k = 0; k < n; k++) {
-                List<int[]> edges = edgeLists.get(k);
-                int idx = idxPerOht[k];
-                if (idx < edges.size()) {
-                    int[] e = edges.get(idx);
-                    String line = formatUdpLog(nowPerOht[k], e[0], e[1], e[2], ohtIds.get(k));
-                    out.append(line).append('\n');
-                }
-            }
-            // after writing this tick, advance time and indices for those progressed
-            for (int k = 0; k < n; k++) {
-                List<int[]> edges = edgeLists.get(k);
-                int idx = idxPerOht[k];
-                if (idx < edges.size()) {
-                    nowPerOht[k] += incTick;
-                    idxPerOht[k] = idx + 1;
-                    remaining--;
-                }
+        SplittableRandom[] rndPerOht = new SplittableRandom[n];
+        IndexedMinHeap next = new IndexedMinHeap(n);
+        for (int k = 0; k < n; k++) {
+            nowPerOht[k] = baseNow;
+            rndPerOht[k] = rnd.split();
+            if (paths[k].length > 1) next.pushOrDecrease(k, baseNow);
+        }
+        while (!next.isEmpty()) {
+            int k = next.pop();
+            int[] path = paths[k];
+            int idx = idxPerOht[k];
+            out.appendLine(nowPerOht[k], path[idx], path[idx + 1], dests[k], ohtIds.get(k));
+            endTime = nowPerOht[k];
+            idxPerOht[k] = ++idx;
+            if (idx < path.length - 1) {
+                nowPerOht[k] += stepMillis(rndPerOht[k]);
+                next.pushOrDecrease(k, nowPerOht[k]);
             }
         }
         String content = out.toString();
-        configService.saveOhtLogToDb(userId, content);
+        configService.saveOhtLogToDb(userId, content, baseNow, endTime);
 
         Result r = new Result();
-        r.logPath = "db://" + userId + "_amhs_data:oht_track.datalog";
+        r.logPath = "db://" + userId + "_oht_log";
         r.summary = "OHT track entries written (bulk) -> saved to DB";
         r.content = content;
         return r;
     }
 
+    private static int stepMillis(SplittableRandom rnd) {
+        return GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + rnd.nextInt(Math.max(1, GenerationConfig.UDP_TIME_INCREMENT_MAX_MS - GenerationConfig.UDP_TIME_INCREMENT_MIN_MS + 1));
+    }
+
     public static class Request {
         public int startAddress;
         public int destinationAddress;
         public String ohtId;
     }
 
-    private Map<Integer, List<Integer>> buildGraphFromOutput(String userId) throws IOException {
-        JsonNode output = configService.loadOutputFromDb(userId).orElseThrow(() -> new IOException("output not found in DB"));
-        JsonNode linesNode = output.path("lines");
-        Map<Integer, List<Integer>> graph = new HashMap<>();
-        if (linesNode != null && linesNode.isArray()) {
-            for (JsonNode l : linesNode) {
-                int from = l.path("fromAddress").asInt();
-                int to = l.path("toAddress").asInt();
-                graph.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
-                graph.computeIfAbsent(to, k -> new ArrayList<>()).add(from);
-            }
+    /**
+     * Drives all requested OHTs through a discrete-event simulation on the shared track, so
+     * vehicles queue behind each other instead of passing through occupied addresses.
+     * The log is appended to the DB in chunks as it is produced.
+     */
+    public Result runSimulation(String userId, List<Request> entries) throws IOException {
+        if (entries == null || entries.isEmpty()) throw new IOException("no entries");
+        RoutingGraph graph = buildGraphFromOutput(userId);
+        int[][] paths = routeAll(graph, entries);
+
+        long baseNow = System.currentTimeMillis();
+        StringBuilder preview = new StringBuilder();
+        FleetSimulator sim = new FleetSimulator(graph, new UdpLogFormatter(), (chunk, first, last) -> {
+            String text = chunk.toString();
+            configService.saveOhtLogToDb(userId, text, first, last);
+            int room = GenerationConfig.UDP_SIM_PREVIEW_CHARS - preview.length();
+            if (room > 0) preview.append(text, 0, Math.min(room, text.length()));
+        }, GenerationConfig.UDP_SIM_FLUSH_CHARS, GenerationConfig.UDP_SIM_MAX_WAIT_MS);
+        SplittableRandom rnd = new SplittableRandom();
+        for (int k = 0; k < entries.size(); k++) {
+            Request r = entries.get(k);
+            sim.addVehicle(r.ohtId, paths[k], r.destinationAddress, baseNow, rnd.split());
         }
-        return graph;
+        FleetSimulator.Stats st = sim.run();
+
+        Result res = new Result();
+        res.logPath = "db://" + userId + "_oht_log";
+        res.summary = "OHT fleet simulation: vehicles=" + st.vehicles + ", finished=" + st.finished + ", stuck=" + st.stuck
+                + ", lines=" + st.lines + ", events=" + st.events + ", blocked waits=" + st.blockedWaits
+                + ", total wait=" + st.totalWaitMs + "ms, span=" + (st.endTime - st.startTime) + "ms -> saved to DB";
+        res.content = preview.toString();
+        return res;
     }
 
-    private static List<Integer> bfsShortestPath(Map<Integer, List<Integer>> graph, int start, int dest) {
-        if (start == dest) return Collections.singletonList(start);
-        if (!graph.containsKey(start) || !graph.containsKey(dest)) return null;
-        Queue<Integer> q = new ArrayDeque<>();
-        Map<Integer, Integer> parent = new HashMap<>();
-        Set<Integer> visited = new HashSet<>();
-        q.add(start); visited.add(start); parent.put(start, -1);
-        while (!q.isEmpty()) {
-            int cur = q.poll();
-            if (cur == dest) break;
-            for (int nx : graph.getOrDefault(cur, Collections.emptyList())) {
-                if (!visited.contains(nx)) { visited.add(nx); parent.put(nx, cur); q.add(nx); }
-            }
+    // Routes every request over the shared read-only graph. Each worker owns one Search and takes
+    // every workers-th request, so the result depends only on the request order, not on scheduling.
+    private int[][] routeAll(RoutingGraph graph, List<Request> entries) {
+        int n = entries.size();
+        int[][] paths = new int[n][];
+        int workers = Math.min(ForkJoinPool.getCommonPoolParallelism(), n / GenerationConfig.UDP_ROUTES_PER_WORKER);
+        if (workers <= 1) {
+            RoutingGraph.Search search = graph.newSearch();
+            for (int k = 0; k < n; k++) paths[k] = routeOrEmpty(search, entries.get(k));
+            return paths;
         }
-        if (!parent.containsKey(dest)) return null;
-        List<Integer> path = new ArrayList<>();
-        for (int v = dest; v != -1; v = parent.getOrDefault(v, -1)) path.add(v);
-        Collections.reverse(path);
-        return path;
+        IntStream.range(0, workers).parallel().forEach(w -> {
+            RoutingGraph.Search search = graph.newSearch();
+            for (int k = w; k < n; k += workers) paths[k] = routeOrEmpty(search, entries.get(k));
+        });
+        return paths;
     }
 
-    private static String formatUdpLog(long tsMs, int currentAddr, int nextAddr, int destinationAddr, String ohtId) {
-        String ts = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new java.util.Date(tsMs));
-        String mcp = GenerationConfig.UDP_MCP;
-        if (ohtId != null && !ohtId.isEmpty()) {
-            String s = ohtId.toUpperCase(java.util.Locale.ROOT).replaceAll("[^A-Z0-9_]", "");
-            if (s.startsWith("OHT_")) s = s.substring(4);
-            else if (s.startsWith("OHT")) s = s.substring(3);
-            String digits = s.replaceAll("\\D+", "");
-            if (!digits.isEmpty()) mcp = "OHT" + digits; // e.g., OHT1, OHT2
-        }
-        return "[" + ts + "]" +
-                "IP:" + GenerationConfig.UDP_IP + ", " +
-                "Port=" + GenerationConfig.UDP_PORT + ", " +
-                "Descrption:" + GenerationConfig.UDP_DESCRIPTION + ", " +
-                "Message=" + GenerationConfig.UDP_MESSAGE + "," +
-                mcp + "," +
-                GenerationConfig.UDP_VEHICLE + "," +
-                GenerationConfig.UDP_STATE + "," +
-                GenerationConfig.UDP_PRODUCT + "," +
-                GenerationConfig.UDP_ERROR_CODE + "," +
-                GenerationConfig.UDP_COMM_STATE + "," +
-                currentAddr + "," +
-                GenerationConfig.UDP_DISTANCE + "," +
-                nextAddr + "," +
-                GenerationConfig.UDP_RUN_CYCLE + "," +
-                GenerationConfig.UDP_RUN_CYCLE_INTERVAL + "," +
-                GenerationConfig.UDP_CARRIER + "," +
-                destinationAddr + "," +
-                GenerationConfig.UDP_EM_STATE + "," +
-                GenerationConfig.UDP_GROUP_ID + "," +
-                " ," +
-                GenerationConfig.UDP_RETURN_PRIORITY + "," +
-                GenerationConfig.UDP_JOB_DETAIL + "," +
-                GenerationConfig.UDP_MOVE_DISTANCE;
+    private int[] routeOrEmpty(RoutingGraph.Search search, Request r) {
+        int[] path = route(search, r.startAddress, r.destinationAddress);
+        return path == null || path.length < 2 ? NO_PATH : path;
+    }
+
+    int[] route(RoutingGraph.Search search, int startAddress, int destinationAddress) {
+        return weightedRouting
+                ? search.shortestPath(startAddress, destinationAddress)
+                : search.fewestHopsPath(startAddress, destinationAddress);
+    }
+
+    RoutingGraph buildGraphFromOutput(String userId) throws IOException {
+        // Reuse the built graph until the layout output is saved again
+        long version = configService.layoutVersion(userId);
+        RoutingGraph graph = routingCache.get(userId, version,
+                () -> configService.getLayoutSnapshot(userId).map(RoutingGraph::fromLines).orElse(null));
+        if (graph == null) throw new IOException("output not found in DB");
+        return graph;
     }
 
     public static class Result {
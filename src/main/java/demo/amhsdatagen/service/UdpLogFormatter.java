@@ -0,0 +1,341 @@
+package demo.amhsdatagen.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes OHT track records in the UDP log line format into a reusable char buffer.
+ *
+ * The constant GenerationConfig.UDP_* parts of a record are joined once into a few template
+ * segments; only the timestamp, MCP tag and the three addresses vary. The "yyyy-MM-dd HH:mm:ss"
+ * part of the timestamp is re-rendered only when a record falls into a different second than the
+ * previous one, and the MCP tag is resolved once per OHT id. Output is identical to formatting
+ * each record with SimpleDateFormat and string concatenation in the JVM default time zone.
+ *
+ * Not thread-safe: use one formatter per generation run.
+ */
+public final class UdpLogFormatter {
+
+    private static final char[] AFTER_TS = ("]"
+            + "IP:" + GenerationConfig.UDP_IP + ", "
+            + "Port=" + GenerationConfig.UDP_PORT + ", "
+            + "Descrption:" + GenerationConfig.UDP_DESCRIPTION + ", "
+            + "Message=" + GenerationConfig.UDP_MESSAGE + ",").toCharArray();
+    private static final char[] AFTER_MCP = (","
+            + GenerationConfig.UDP_VEHICLE + ","
+            + GenerationConfig.UDP_STATE + ","
+            + GenerationConfig.UDP_PRODUCT + ","
+            + GenerationConfig.UDP_ERROR_CODE + ","
+            + GenerationConfig.UDP_COMM_STATE + ",").toCharArray();
+    private static final char[] AFTER_CURRENT = (","
+            + GenerationConfig.UDP_DISTANCE + ",").toCharArray();
+    private static final char[] AFTER_NEXT = (","
+            + GenerationConfig.UDP_RUN_CYCLE + ","
+            + GenerationConfig.UDP_RUN_CYCLE_INTERVAL + ","
+            + GenerationConfig.UDP_CARRIER + ",").toCharArray();
+    private static final char[] AFTER_DEST = (","
+            + GenerationConfig.UDP_EM_STATE + ","
+            + GenerationConfig.UDP_GROUP_ID + ","
+            + " ,"
+            + GenerationConfig.UDP_RETURN_PRIORITY + ","
+            + GenerationConfig.UDP_JOB_DETAIL + ","
+            + GenerationConfig.UDP_MOVE_DISTANCE).toCharArray();
+    private static final char[] DEFAULT_MCP = GenerationConfig.UDP_MCP.toCharArray();
+
+    private final ZoneId zone;
+    private final Map<String, char[]> mcpTags = new HashMap<>();
+
+    // "yyyy-MM-dd HH:mm:ss." of the second starting at cachedSecond (epoch ms)
+    private final char[] secondPrefix = new char[20];
+    private long cachedSecond = Long.MIN_VALUE;
+
+    // parse side: "yyyy-MM-dd HH:mm:ss" of the last parsed line and its epoch ms
+    private final char[] parsedPrefix = new char[19];
+    private long parsedSecond = Long.MIN_VALUE;
+    private final long[] parsedInt = new long[1];
+
+    private char[] buf;
+    private int len;
+
+    public UdpLogFormatter() {
+        this(ZoneId.systemDefault(), 8192);
+    }
+
+    public UdpLogFormatter(ZoneId zone, int initialCapacity) {
+        this.zone = zone;
+        this.buf = new char[Math.max(initialCapacity, 256)];
+    }
+
+    /** Appends one record followed by '\n'. */
+    public void appendLine(long tsMs, int currentAddr, int nextAddr, int destinationAddr, String ohtId) {
+        appendRecord(tsMs, currentAddr, nextAddr, destinationAddr, ohtId);
+        ensure(1);
+        buf[len++] = '\n';
+    }
+
+    /** Appends one record without a line terminator. */
+    public void appendRecord(long tsMs, int currentAddr, int nextAddr, int destinationAddr, String ohtId) {
+        appendTagged(tsMs, mcpTag(ohtId), currentAddr, nextAddr, destinationAddr);
+    }
+
+    /** Appends one record with an already resolved MCP tag (as returned by {@link #parseRecord}). */
+    void appendTagged(long tsMs, char[] mcp, int currentAddr, int nextAddr, int destinationAddr) {
+        // 1 + 23 + segments + mcp + 3 * 11 digits
+        ensure(24 + AFTER_TS.length + mcp.length + AFTER_MCP.length + AFTER_CURRENT.length
+                + AFTER_NEXT.length + AFTER_DEST.length + 33);
+        buf[len++] = '[';
+        appendTimestamp(tsMs);
+        put(AFTER_TS);
+        put(mcp);
+        put(AFTER_MCP);
+        appendInt(currentAddr);
+        put(AFTER_CURRENT);
+        appendInt(nextAddr);
+        put(AFTER_NEXT);
+        appendInt(destinationAddr);
+        put(AFTER_DEST);
+    }
+
+    /** Formats a single record as a string (for callers that need one line only). */
+    public String format(long tsMs, int currentAddr, int nextAddr, int destinationAddr, String ohtId) {
+        int start = len;
+        appendRecord(tsMs, currentAddr, nextAddr, destinationAddr, ohtId);
+        String s = new String(buf, start, len - start);
+        len = start;
+        return s;
+    }
+
+    /** Appends arbitrary text (used to reproduce lines that are not records). */
+    void appendText(CharSequence s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = s.charAt(i);
+    }
+
+    void appendChar(char c) {
+        ensure(1);
+        buf[len++] = c;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    /** Drops the buffered text but keeps the buffer, the MCP tags and the timestamp cache. */
+    public void clear() {
+        len = 0;
+    }
+
+    public void writeTo(Writer out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len);
+    }
+
+    /**
+     * Reads the "[yyyy-MM-dd HH:mm:ss.SSS]" timestamp at the start of a log line as epoch ms in
+     * this formatter's zone, or Long.MIN_VALUE when the line does not start with one. The date
+     * part is converted only when it differs from the previous line's.
+     */
+    public long parseTimestamp(CharSequence line) {
+        if (line.length() < 25 || line.charAt(0) != '[' || line.charAt(5) != '-' || line.charAt(8) != '-'
+                || line.charAt(11) != ' ' || line.charAt(14) != ':' || line.charAt(17) != ':'
+                || line.charAt(20) != '.' || line.charAt(24) != ']') {
+            return Long.MIN_VALUE;
+        }
+        int millis = 0;
+        for (int i = 21; i < 24; i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9) return Long.MIN_VALUE;
+            millis = millis * 10 + d;
+        }
+        boolean same = parsedSecond != Long.MIN_VALUE;
+        for (int i = 0; same && i < 19; i++) same = parsedPrefix[i] == line.charAt(i + 1);
+        if (!same) {
+            for (int i = 0; i < 19; i++) parsedPrefix[i] = line.charAt(i + 1);
+            try {
+                LocalDateTime t = LocalDateTime.of(number(line, 1, 4), number(line, 6, 2), number(line, 9, 2),
+                        number(line, 12, 2), number(line, 15, 2), number(line, 18, 2));
+                parsedSecond = t.atZone(zone).toInstant().toEpochMilli();
+            } catch (DateTimeException | NumberFormatException e) {
+                parsedSecond = Long.MIN_VALUE;
+                return Long.MIN_VALUE;
+            }
+        }
+        return parsedSecond + millis;
+    }
+
+    /** Fields of a record line read by {@link #parseRecord}; the MCP tag is line[mcpStart, mcpEnd). */
+    static final class Fields {
+        long timestamp;
+        int mcpStart;
+        int mcpEnd;
+        int current;
+        int next;
+        int destination;
+    }
+
+    /**
+     * Reads a line that this formatter could have written, without its terminator. Returns false
+     * unless {@link #appendTagged} with the parsed fields reproduces the line exactly: the constant
+     * segments must match and the numbers must be in canonical form.
+     */
+    boolean parseRecord(CharSequence line, Fields f) {
+        long ts = parseTimestamp(line);
+        if (ts == Long.MIN_VALUE) return false;
+        int pos = matchSegment(line, 24, AFTER_TS);
+        if (pos < 0) return false;
+        int mcpEnd = pos;
+        while (mcpEnd < line.length() && line.charAt(mcpEnd) != ',') mcpEnd++;
+        f.timestamp = ts;
+        f.mcpStart = pos;
+        f.mcpEnd = mcpEnd;
+        long[] v = parsedInt;
+        if ((pos = matchSegment(line, mcpEnd, AFTER_MCP)) < 0 || (pos = parseCanonicalInt(line, pos, v)) < 0) return false;
+        f.current = (int) v[0];
+        if ((pos = matchSegment(line, pos, AFTER_CURRENT)) < 0 || (pos = parseCanonicalInt(line, pos, v)) < 0) return false;
+        f.next = (int) v[0];
+        if ((pos = matchSegment(line, pos, AFTER_NEXT)) < 0 || (pos = parseCanonicalInt(line, pos, v)) < 0) return false;
+        f.destination = (int) v[0];
+        return matchSegment(line, pos, AFTER_DEST) == line.length();
+    }
+
+    private static int matchSegment(CharSequence s, int at, char[] segment) {
+        if (at + segment.length > s.length()) return -1;
+        for (int i = 0; i < segment.length; i++) if (s.charAt(at + i) != segment[i]) return -1;
+        return at + segment.length;
+    }
+
+    // Digits as appendInt would print them (no '+', no leading zeros, no "-0"), within int range
+    private static int parseCanonicalInt(CharSequence s, int at, long[] out) {
+        int i = at;
+        boolean negative = i < s.length() && s.charAt(i) == '-';
+        if (negative) i++;
+        int start = i;
+        long v = 0;
+        while (i < s.length() && i - start < 11) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) break;
+            v = v * 10 + d;
+            i++;
+        }
+        int digits = i - start;
+        if (digits == 0 || digits > 10 || (digits > 1 && s.charAt(start) == '0') || (negative && v == 0)) return -1;
+        if (negative) v = -v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) return -1;
+        out[0] = v;
+        return i;
+    }
+
+    private static int number(CharSequence s, int at, int digits) {
+        int v = 0;
+        for (int i = at; i < at + digits; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException();
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /** MCP tag for an OHT id ("OHT_12" / "oht12" / "12" -> "OHT12"), resolved once per id. */
+    char[] mcpTag(String ohtId) {
+        if (ohtId == null || ohtId.isEmpty()) return DEFAULT_MCP;
+        char[] tag = mcpTags.get(ohtId);
+        if (tag == null) {
+            tag = resolveMcp(ohtId).toCharArray();
+            mcpTags.put(ohtId, tag);
+        }
+        return tag;
+    }
+
+    private static String resolveMcp(String ohtId) {
+        String s = ohtId.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9_]", "");
+        if (s.startsWith("OHT_")) s = s.substring(4);
+        else if (s.startsWith("OHT")) s = s.substring(3);
+        String digits = s.replaceAll("\\D+", "");
+        return digits.isEmpty() ? GenerationConfig.UDP_MCP : "OHT" + digits;
+    }
+
+    private void appendTimestamp(long tsMs) {
+        int millis = (int) Math.floorMod(tsMs, 1000L);
+        long second = tsMs - millis;
+        if (second != cachedSecond) {
+            renderSecond(second);
+            cachedSecond = second;
+        }
+        System.arraycopy(secondPrefix, 0, buf, len, 20);
+        len += 20;
+        buf[len++] = (char) ('0' + millis / 100);
+        buf[len++] = (char) ('0' + millis / 10 % 10);
+        buf[len++] = (char) ('0' + millis % 10);
+    }
+
+    private void renderSecond(long second) {
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(second, 1000L), 0,
+                zone.getRules().getOffset(java.time.Instant.ofEpochMilli(second)));
+        int year = t.getYear();
+        char[] p = secondPrefix;
+        p[0] = digit(year / 1000 % 10);
+        p[1] = digit(year / 100 % 10);
+        p[2] = digit(year / 10 % 10);
+        p[3] = digit(year % 10);
+        p[4] = '-';
+        two(p, 5, t.getMonthValue());
+        p[7] = '-';
+        two(p, 8, t.getDayOfMonth());
+        p[10] = ' ';
+        two(p, 11, t.getHour());
+        p[13] = ':';
+        two(p, 14, t.getMinute());
+        p[16] = ':';
+        two(p, 17, t.getSecond());
+        p[19] = '.';
+    }
+
+    private static void two(char[] p, int at, int v) {
+        p[at] = digit(v / 10);
+        p[at + 1] = digit(v % 10);
+    }
+
+    private static char digit(int d) {
+        return (char) ('0' + d);
+    }
+
+    private void appendInt(int v) {
+        if (v == Integer.MIN_VALUE) {
+            put("-2147483648".toCharArray());
+            return;
+        }
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (int x = v; x >= 10; x /= 10) digits++;
+        int end = len + digits;
+        for (int i = end - 1; i >= len; i--) {
+            buf[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        len = end;
+    }
+
+    private void put(char[] chars) {
+        System.arraycopy(chars, 0, buf, len, chars.length);
+        len += chars.length;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+}
@@ -0,0 +1,219 @@
+package demo.amhsdatagen.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a user's stored OHT log as live UDP traffic, one datagram per log line.
+ *
+ * Each replay runs on its own background thread, so a real-time replay of a long log does not
+ * hold an HTTP request; callers start, poll and stop it. The log is read one chunk per query
+ * (no DB connection is held while waiting) and lines are sent straight out of the chunk text.
+ *
+ * Pacing modes:
+ * REALTIME keeps the gaps between the log timestamps, ACCELERATED divides them by a speed factor,
+ * and MAX sends as fast as the channel allows. A packets-per-second limit, enforced per batch,
+ * can be combined with any mode.
+ */
+@Service
+public class UdpReplayService {
+
+    public enum Pacing { REALTIME, ACCELERATED, MAX }
+
+    public static class Options {
+        public String host;
+        public int port;
+        public Pacing pacing = Pacing.REALTIME;
+        public double speed = 1.0;
+        public double maxPacketsPerSecond;
+        public int batchSize;
+    }
+
+    private static final class Job implements Runnable {
+        final String userId;
+        final Options options;
+        final InetSocketAddress target;
+        final long startedAt = System.currentTimeMillis();
+        final ConfigService configService;
+        volatile Thread thread;
+        volatile boolean stopRequested;
+        volatile String state = "RUNNING";
+        volatile String error;
+        volatile long sent;
+        volatile long bytes;
+        volatile long dropped;
+        volatile long elapsedNanos;
+        volatile long finishedAt;
+
+        Job(String userId, Options options, InetSocketAddress target, ConfigService configService) {
+            this.userId = userId;
+            this.options = options;
+            this.target = target;
+            this.configService = configService;
+        }
+
+        @Override
+        public void run() {
+            try (UdpEmitter emitter = new UdpEmitter(target, options.batchSize, options.maxPacketsPerSecond, () -> stopRequested)) {
+                UdpLogFormatter clock = new UdpLogFormatter();
+                boolean paced = options.pacing != Pacing.MAX;
+                double nanosPerLogMs = 1e6 / (options.pacing == Pacing.REALTIME ? 1.0 : options.speed);
+                long origin = System.nanoTime();
+                long[] firstTs = {Long.MIN_VALUE};
+                configService.forEachOhtLogChunk(userId, chunk -> {
+                    CharBuffer line = CharBuffer.wrap(chunk);
+                    int n = chunk.length();
+                    int pos = 0;
+                    while (pos < n && !stopRequested) {
+                        int eol = chunk.indexOf('\n', pos);
+                        if (eol < 0) eol = n;
+                        int end = eol > pos && chunk.charAt(eol - 1) == '\r' ? eol - 1 : eol;
+                        if (end > pos) {
+                            line.clear().position(pos).limit(end);
+                            if (paced) {
+                                long ts = clock.parseTimestamp(line);
+                                if (ts != Long.MIN_VALUE) {
+                                    if (firstTs[0] == Long.MIN_VALUE) firstTs[0] = ts;
+                                    if (!UdpEmitter.waitUntil(origin + (long) ((ts - firstTs[0]) * nanosPerLogMs), () -> stopRequested)) {
+                                        break;
+                                    }
+                                }
+                            }
+                            try {
+                                if (emitter.send(line)) publish(emitter);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                        pos = eol + 1;
+                    }
+                    return !stopRequested;
+                });
+                publish(emitter);
+                state = stopRequested ? "STOPPED" : "FINISHED";
+            } catch (IOException | RuntimeException e) {
+                error = e.getMessage();
+                state = stopRequested ? "STOPPED" : "FAILED";
+            } finally {
+                finishedAt = System.currentTimeMillis();
+                System.out.println("📡 UDP replay " + state.toLowerCase(Locale.ROOT) + " for user " + userId
+                        + ": " + sent + " packets to " + target);
+            }
+        }
+
+        void publish(UdpEmitter emitter) {
+            sent = emitter.sent();
+            bytes = emitter.bytes();
+            dropped = emitter.dropped();
+            elapsedNanos = emitter.elapsedNanos();
+        }
+
+        boolean running() {
+            return finishedAt == 0;
+        }
+
+        Map<String, Object> status() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("state", state);
+            m.put("target", target.getHostString() + ":" + target.getPort());
+            m.put("pacing", options.pacing.name().toLowerCase(Locale.ROOT));
+            Double speed = options.pacing == Pacing.MAX ? null : options.pacing == Pacing.ACCELERATED ? options.speed : 1.0;
+            m.put("speed", speed);
+            m.put("maxPacketsPerSecond", options.maxPacketsPerSecond > 0 ? options.maxPacketsPerSecond : null);
+            m.put("batchSize", options.batchSize);
+            m.put("sent", sent);
+            m.put("bytes", bytes);
+            m.put("dropped", dropped);
+            long elapsed = elapsedNanos;
+            m.put("packetsPerSecond", elapsed > 0 ? Math.round(sent * 1e9 / elapsed) : 0);
+            m.put("startedAt", startedAt);
+            m.put("finishedAt", finishedAt == 0 ? null : finishedAt);
+            m.put("error", error);
+            return m;
+        }
+    }
+
+    private final ConfigService configService;
+    private final String defaultHost;
+    private final int defaultPort;
+    private final int defaultBatchSize;
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public UdpReplayService(ConfigService configService,
+                            @Value("${app.udp.replay.host:127.0.0.1}") String defaultHost,
+                            @Value("${app.udp.replay.port:3600}") int defaultPort,
+                            @Value("${app.udp.replay.batch-size:64}") int defaultBatchSize) {
+        this.configService = configService;
+        this.defaultHost = defaultHost;
+        this.defaultPort = defaultPort;
+        this.defaultBatchSize = defaultBatchSize;
+    }
+
+    /** Options with the configured target and batch size; callers override what they need. */
+    public Options defaultOptions() {
+        Options o = new Options();
+        o.host = defaultHost;
+        o.port = defaultPort;
+        o.batchSize = defaultBatchSize;
+        return o;
+    }
+
+    public static Pacing parsePacing(String mode) {
+        if (mode == null || mode.isBlank()) return Pacing.REALTIME;
+        return switch (mode.trim().toLowerCase(Locale.ROOT)) {
+            case "realtime", "real-time", "real_time" -> Pacing.REALTIME;
+            case "accelerated", "fast" -> Pacing.ACCELERATED;
+            case "max", "max-throughput", "max_throughput", "unpaced" -> Pacing.MAX;
+            default -> throw new IllegalArgumentException("unknown pacing mode: " + mode);
+        };
+    }
+
+    /** Starts a replay of the user's log; fails if one is already running for the user. */
+    public Map<String, Object> start(String userId, Options options) throws IOException {
+        if (!configService.hasOhtLog(userId)) throw new IOException("OHT log not found in DB");
+        if (options.port <= 0 || options.port > 65535) throw new IllegalArgumentException("invalid port: " + options.port);
+        if (options.pacing == Pacing.ACCELERATED && !(options.speed > 0)) throw new IllegalArgumentException("speed must be > 0");
+        options.batchSize = Math.max(1, options.batchSize);
+        InetSocketAddress target = new InetSocketAddress(options.host, options.port);
+        if (target.isUnresolved()) throw new IOException("unknown host: " + options.host);
+
+        Job job = new Job(userId, options, target, configService);
+        Job existing = jobs.compute(userId, (k, current) -> current != null && current.running() ? current : job);
+        if (existing != job) throw new IllegalStateException("a UDP replay is already running for this user");
+        Thread t = new Thread(job, "udp-replay-" + userId);
+        t.setDaemon(true);
+        job.thread = t;
+        t.start();
+        System.out.println("📡 UDP replay started for user " + userId + " -> " + target + " (" + options.pacing + ")");
+        return job.status();
+    }
+
+    /**
+     * Requests the user's replay to stop; returns false when none is running. The thread is
+     * unparked, not interrupted: an interrupt would close the emitter's channel mid-send.
+     */
+    public boolean stop(String userId) {
+        Job job = jobs.get(userId);
+        if (job == null || !job.running()) return false;
+        job.stopRequested = true;
+        Thread t = job.thread;
+        if (t != null) LockSupport.unpark(t);
+        return true;
+    }
+
+    /** Status of the user's current or last replay, or null when there has been none. */
+    public Map<String, Object> status(String userId) {
+        Job job = jobs.get(userId);
+        return job == null ? null : job.status();
+    }
+}
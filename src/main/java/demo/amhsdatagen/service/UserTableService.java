@@ -1,13 +1,29 @@
 package demo.amhsdatagen.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class UserTableService {
@@ -37,6 +53,84 @@ public class UserTableService {
         public void setConfigValue(String configValue) { this.configValue = configValue; }
     }
 
+    // CLOB 값을 Writer로 직접 기록하는 콜백
+    @FunctionalInterface
+    public interface ValueWriter {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    // CLOB 값을 Reader로 직접 읽는 콜백
+    @FunctionalInterface
+    public interface ValueReader<T> {
+        T readFrom(Reader in) throws IOException;
+    }
+
+    // OHT 로그 청크를 순서대로 읽는 콜백 (content Reader는 콜백 안에서만 유효)
+    @FunctionalInterface
+    public interface ChunkReader {
+        void read(long seq, Reader content) throws IOException;
+    }
+
+    // OHT 로그 청크 메타데이터 (content 제외)
+    public static class ChunkInfo {
+        private final long seq;
+        private final Long startTime;
+        private final Long endTime;
+        private final int lineCount;
+
+        public ChunkInfo(long seq, Long startTime, Long endTime, int lineCount) {
+            this.seq = seq;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.lineCount = lineCount;
+        }
+
+        public long getSeq() { return seq; }
+        public Long getStartTime() { return startTime; }
+        public Long getEndTime() { return endTime; }
+        public int getLineCount() { return lineCount; }
+    }
+
+    // 청크 하나에 포함된 차량(MCP 태그)별 시간 범위 (차량 인덱스 테이블의 한 행)
+    public static class VehicleSpan {
+        private final String mcp;
+        private final long firstTime;
+        private final long lastTime;
+        private final int lineCount;
+
+        public VehicleSpan(String mcp, long firstTime, long lastTime, int lineCount) {
+            this.mcp = mcp;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.lineCount = lineCount;
+        }
+
+        public String getMcp() { return mcp; }
+        public long getFirstTime() { return firstTime; }
+        public long getLastTime() { return lastTime; }
+        public int getLineCount() { return lineCount; }
+    }
+
+    // 저장된 청크 원본: 텍스트(content) 또는 인코딩된 바이트(data) 중 하나
+    public static class StoredChunk {
+        private final long seq;
+        private final String content;
+        private final byte[] data;
+
+        public StoredChunk(long seq, String content, byte[] data) {
+            this.seq = seq;
+            this.content = content;
+            this.data = data;
+        }
+
+        public long getSeq() { return seq; }
+        public String getContent() { return content; }
+        public byte[] getData() { return data; }
+    }
+
+    // 존재가 확인된 OHT 로그 청크 테이블 (매 append마다 메타데이터 조회를 피하기 위함)
+    private final Set<String> knownOhtLogTables = ConcurrentHashMap.newKeySet();
+
     public UserTableService(JdbcTemplate jdbcTemplate, DataFileService dataFileService) {
         this.jdbcTemplate = jdbcTemplate;
         this.dataFileService = dataFileService;
@@ -46,7 +140,10 @@ public class UserTableService {
      * UserID에 해당하는 테이블이 존재하는지 확인
      */
     public boolean isUserTableExists(String userId) {
-        String tableName = userId + "_amhs_data";
+        return isTableExists(userId + "_amhs_data");
+    }
+
+    private boolean isTableExists(String tableName) {
         String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?";
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class, tableName.toUpperCase());
         return count != null && count > 0;
@@ -123,6 +220,224 @@ public class UserTableService {
             """, tableName);
         
         jdbcTemplate.execute(sql);
+        createOhtLogTable(userId);
+    }
+
+    /**
+     * UserID에 해당하는 OHT 로그 청크 테이블 생성 (append-only)
+     * seq 순서가 로그 순서이며, start_time/end_time은 청크에 포함된 타임스탬프 범위(ms)
+     * 청크 내용은 content(텍스트) 또는 data(UdpLogCodec 바이너리) 중 하나에 저장
+     */
+    public void createOhtLogTable(String userId) {
+        String tableName = userId + "_oht_log";
+        jdbcTemplate.execute(String.format("""
+            CREATE TABLE IF NOT EXISTS "%s" (
+                seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+                start_time BIGINT,
+                end_time BIGINT,
+                line_count INT NOT NULL,
+                content CLOB,
+                data BLOB
+            )
+            """, tableName));
+        jdbcTemplate.execute(String.format(
+            "CREATE INDEX IF NOT EXISTS \"%s_time_idx\" ON \"%s\" (start_time, end_time)", tableName, tableName));
+        // 차량 인덱스: 청크별로 어떤 차량이 어느 시간 범위에 기록되어 있는지
+        String vehicleTable = userId + "_oht_log_vehicle";
+        jdbcTemplate.execute(String.format("""
+            CREATE TABLE IF NOT EXISTS "%s" (
+                seq BIGINT NOT NULL,
+                mcp VARCHAR(64) NOT NULL,
+                first_time BIGINT NOT NULL,
+                last_time BIGINT NOT NULL,
+                line_count INT NOT NULL
+            )
+            """, vehicleTable));
+        jdbcTemplate.execute(String.format(
+            "CREATE INDEX IF NOT EXISTS \"%s_mcp_idx\" ON \"%s\" (mcp, first_time, last_time)", vehicleTable, vehicleTable));
+        knownOhtLogTables.add(tableName);
+    }
+
+    /**
+     * OHT 로그 청크 하나를 추가 (기존 청크는 읽거나 다시 쓰지 않음)
+     */
+    @Transactional
+    public void appendOhtLogChunk(String userId, Long startTime, Long endTime, int lineCount, String content,
+                                  List<VehicleSpan> vehicles) {
+        insertOhtLogChunk(userId, startTime, endTime, lineCount, content, null, vehicles);
+    }
+
+    /**
+     * UdpLogCodec으로 인코딩된 OHT 로그 청크 하나를 추가 (읽을 때 텍스트로 복원됨)
+     */
+    @Transactional
+    public void appendEncodedOhtLogChunk(String userId, Long startTime, Long endTime, int lineCount, byte[] data,
+                                         List<VehicleSpan> vehicles) {
+        insertOhtLogChunk(userId, startTime, endTime, lineCount, null, data, vehicles);
+    }
+
+    private void insertOhtLogChunk(String userId, Long startTime, Long endTime, int lineCount, String content, byte[] data,
+                                   List<VehicleSpan> vehicles) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName)) {
+            if (isTableExists(tableName)) knownOhtLogTables.add(tableName);
+            else createOhtLogTable(userId);
+        }
+        // H2: INSERT 결과에서 생성된 seq를 바로 조회
+        String sql = String.format("SELECT seq FROM FINAL TABLE (INSERT INTO \"%s\" (start_time, end_time, line_count, content, data) VALUES (?, ?, ?, ?, ?))", tableName);
+        Long seq = jdbcTemplate.queryForObject(sql, Long.class, startTime, endTime, lineCount, content, data);
+        if (seq == null || vehicles == null || vehicles.isEmpty()) return;
+        String indexSql = String.format("INSERT INTO \"%s_vehicle\" (seq, mcp, first_time, last_time, line_count) VALUES (?, ?, ?, ?, ?)", tableName);
+        jdbcTemplate.batchUpdate(indexSql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                VehicleSpan v = vehicles.get(i);
+                ps.setLong(1, seq);
+                ps.setString(2, v.getMcp());
+                ps.setLong(3, v.getFirstTime());
+                ps.setLong(4, v.getLastTime());
+                ps.setInt(5, v.getLineCount());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return vehicles.size();
+            }
+        });
+    }
+
+    /**
+     * OHT 로그 청크 존재 여부
+     */
+    public boolean hasOhtLogChunks(String userId) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return false;
+        Integer count = jdbcTemplate.queryForObject(String.format("SELECT COUNT(*) FROM \"%s\"", tableName), Integer.class);
+        return count != null && count > 0;
+    }
+
+    /**
+     * OHT 로그 청크를 seq 순서대로 CLOB Reader로 스트리밍 (바이너리 청크는 텍스트로 복원해 전달)
+     * 읽기 중 발생한 IOException은 UncheckedIOException으로 전달
+     */
+    public void readOhtLogChunks(String userId, ChunkReader chunkReader) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return;
+        String sql = String.format("SELECT seq, content, data FROM \"%s\" ORDER BY seq", tableName);
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            byte[] data = rs.getBytes(3);
+            try (Reader in = data != null ? new StringReader(UdpLogCodec.decode(data)) : rs.getCharacterStream(2)) {
+                if (in != null) chunkReader.read(rs.getLong(1), in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * OHT 로그 청크 목록을 seq 순서로 조회 (content는 읽지 않음)
+     */
+    public List<ChunkInfo> listOhtLogChunks(String userId) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return new ArrayList<>();
+        String sql = String.format("SELECT seq, start_time, end_time, line_count FROM \"%s\" ORDER BY seq", tableName);
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new ChunkInfo(rs.getLong(1),
+                rs.getObject(2) != null ? rs.getLong(2) : null,
+                rs.getObject(3) != null ? rs.getLong(3) : null,
+                rs.getInt(4)));
+    }
+
+    /**
+     * OHT 로그 청크 하나의 내용 조회 (청크 단위로 끊어 읽는 장시간 작업용)
+     */
+    public Optional<String> readOhtLogChunk(String userId, long seq) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return Optional.empty();
+        String sql = String.format("SELECT content, data FROM \"%s\" WHERE seq = ?", tableName);
+        List<String> rows = jdbcTemplate.query(sql, (rs, rowNum) -> {
+            byte[] data = rs.getBytes(2);
+            return data != null ? UdpLogCodec.decode(data) : rs.getString(1);
+        }, seq);
+        return rows.isEmpty() ? Optional.empty() : Optional.ofNullable(rows.get(0));
+    }
+
+    /**
+     * 조건에 맞을 수 있는 청크만 seq 순서로 조회 (seq >= fromSeq)
+     * 시간 범위가 없는(null) 청크는 항상 포함, 차량 조건이 있으면 차량 인덱스에서 해당 차량이 구간 안에 있는 청크만
+     */
+    public List<ChunkInfo> findOhtLogChunks(String userId, Long fromTime, Long toTime, Collection<String> mcps, long fromSeq) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return new ArrayList<>();
+        StringBuilder sql = new StringBuilder(String.format(
+            "SELECT seq, start_time, end_time, line_count FROM \"%s\" WHERE seq >= ?", tableName));
+        List<Object> args = new ArrayList<>();
+        args.add(fromSeq);
+        if (fromTime != null) {
+            sql.append(" AND (end_time IS NULL OR end_time >= ?)");
+            args.add(fromTime);
+        }
+        if (toTime != null) {
+            sql.append(" AND (start_time IS NULL OR start_time <= ?)");
+            args.add(toTime);
+        }
+        if (mcps != null && !mcps.isEmpty()) {
+            sql.append(String.format(" AND seq IN (SELECT seq FROM \"%s_vehicle\" WHERE mcp IN (", tableName));
+            sql.append(String.join(", ", Collections.nCopies(mcps.size(), "?"))).append(")");
+            args.addAll(mcps);
+            if (fromTime != null) {
+                sql.append(" AND last_time >= ?");
+                args.add(fromTime);
+            }
+            if (toTime != null) {
+                sql.append(" AND first_time <= ?");
+                args.add(toTime);
+            }
+            sql.append(")");
+        }
+        sql.append(" ORDER BY seq");
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new ChunkInfo(rs.getLong(1),
+                rs.getObject(2) != null ? rs.getLong(2) : null,
+                rs.getObject(3) != null ? rs.getLong(3) : null,
+                rs.getInt(4)), args.toArray());
+    }
+
+    /**
+     * 청크 원본을 디코딩 없이 조회 (인코딩된 청크는 바이트 그대로)
+     */
+    public Optional<StoredChunk> readStoredOhtLogChunk(String userId, long seq) {
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return Optional.empty();
+        String sql = String.format("SELECT content, data FROM \"%s\" WHERE seq = ?", tableName);
+        List<StoredChunk> rows = jdbcTemplate.query(sql, (rs, rowNum) -> new StoredChunk(seq, rs.getString(1), rs.getBytes(2)), seq);
+        return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+    }
+
+    /**
+     * OHT 로그 저장 크기: 청크 수, 줄 수, 텍스트 청크 문자 수, 바이너리 청크 바이트 수
+     */
+    public Map<String, Object> ohtLogStorage(String userId) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        String tableName = userId + "_oht_log";
+        if (!knownOhtLogTables.contains(tableName) && !isTableExists(tableName)) return stats;
+        String sql = String.format("SELECT COUNT(*), COALESCE(SUM(line_count), 0), COALESCE(SUM(LENGTH(content)), 0), "
+                + "COALESCE(SUM(OCTET_LENGTH(data)), 0) FROM \"%s\"", tableName);
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            stats.put("chunks", rs.getLong(1));
+            stats.put("lines", rs.getLong(2));
+            stats.put("text_chars", rs.getLong(3));
+            stats.put("encoded_bytes", rs.getLong(4));
+        });
+        return stats;
+    }
+
+    /**
+     * OHT 로그 청크 테이블 삭제
+     */
+    public void dropOhtLogTable(String userId) {
+        String tableName = userId + "_oht_log";
+        jdbcTemplate.execute("DROP TABLE IF EXISTS \"" + tableName + "\"");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS \"" + tableName + "_vehicle\"");
+        knownOhtLogTables.remove(tableName);
     }
 
     /**
@@ -182,6 +497,52 @@ public class UserTableService {
         }
     }
 
+    /**
+     * 값을 문자열로 올리지 않고 CLOB Reader로 스트리밍하여 읽기 (대용량 JSON용)
+     * 파싱 중 발생한 IOException은 UncheckedIOException으로 전달
+     */
+    public <T> Optional<T> readFromUserTable(String userId, String key, ValueReader<T> valueReader) {
+        String tableName = userId + "_amhs_data";
+        String sql = String.format("SELECT config_value FROM \"%s\" WHERE config_key = ?", tableName);
+        try {
+            return jdbcTemplate.query(sql, rs -> {
+                if (!rs.next()) return Optional.<T>empty();
+                try (Reader in = rs.getCharacterStream(1)) {
+                    return in == null ? Optional.<T>empty() : Optional.ofNullable(valueReader.readFrom(in));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, key);
+        } catch (UncheckedIOException e) {
+            throw e;
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * config key 존재 여부만 확인 (CLOB 값은 읽지 않음)
+     */
+    public boolean hasConfigKey(String userId, String key) {
+        String tableName = userId + "_amhs_data";
+        String sql = String.format("SELECT COUNT(*) FROM \"%s\" WHERE config_key = ?", tableName);
+        try {
+            Integer count = jdbcTemplate.queryForObject(sql, Integer.class, key);
+            return count != null && count > 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * config key 삭제
+     */
+    @Transactional
+    public void deleteFromUserTable(String userId, String key) {
+        String tableName = userId + "_amhs_data";
+        jdbcTemplate.update(String.format("DELETE FROM \"%s\" WHERE config_key = ?", tableName), key);
+    }
+
     /**
      * UserID에 해당하는 테이블에 데이터 저장
      */
@@ -189,9 +550,7 @@ public class UserTableService {
     public void saveToUserTable(String userId, String key, String value) {
         String tableName = userId + "_amhs_data";
         // 기존 데이터 확인
-        Optional<ConfigData> existing = findByUserIdAndKey(userId, key);
-        
-        if (existing.isPresent()) {
+        if (hasConfigKey(userId, key)) {
             // 업데이트
             String updateSql = String.format("UPDATE \"%s\" SET config_value = ? WHERE config_key = ?", tableName);
             jdbcTemplate.update(updateSql, value, key);
@@ -201,4 +560,26 @@ public class UserTableService {
             jdbcTemplate.update(insertSql, key, value);
         }
     }
+
+    /**
+     * 값을 문자열로 만들지 않고 CLOB Writer로 직접 스트리밍하여 저장 (대용량 JSON용)
+     */
+    @Transactional
+    public void streamToUserTable(String userId, String key, ValueWriter valueWriter) {
+        String tableName = userId + "_amhs_data";
+        boolean exists = hasConfigKey(userId, key);
+        String sql = exists
+                ? String.format("UPDATE \"%s\" SET config_value = ? WHERE config_key = ?", tableName)
+                : String.format("INSERT INTO \"%s\" (config_value, config_key) VALUES (?, ?)", tableName);
+        jdbcTemplate.update(sql, ps -> {
+            Clob clob = ps.getConnection().createClob();
+            try (Writer out = clob.setCharacterStream(1)) {
+                valueWriter.writeTo(out);
+            } catch (IOException e) {
+                throw new SQLException("CLOB 스트리밍 실패: " + e.getMessage(), e);
+            }
+            ps.setClob(1, clob);
+            ps.setString(2, key);
+        });
+    }
 }
@@ -0,0 +1,122 @@
+package demo.amhsdatagen.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Size-bounded LRU cache whose entries are stamped with the version of the data they were
+ * built from. A lookup only hits when the stamp equals the caller's current version, so a
+ * writer just has to bump the version; stale entries are replaced on the next miss or aged out.
+ *
+ * Loads for the same key are serialised so concurrent requests build a value once; loads for
+ * different keys run in parallel. Values are shared between callers and must not be mutated.
+ */
+public final class VersionedLruCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        final long version;
+        final long bytes;
+
+        Entry(V value, long version, long bytes) {
+            this.value = value;
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private final String name;
+    private final long maxBytes;
+    private final ToLongFunction<V> sizer;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<K, Object> loadLocks = new ConcurrentHashMap<>();
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public VersionedLruCache(String name, long maxBytes, ToLongFunction<V> sizer) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    /**
+     * Returns the cached value for the key if it was built at this version, otherwise loads,
+     * caches and returns it. A null from the loader means "no data" and is not cached.
+     * The version must be read before the loader reads the underlying data.
+     */
+    public V get(K key, long version, Supplier<V> loader) {
+        V v = lookup(key, version);
+        if (v != null) return v;
+        Object lock = loadLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (lock) {
+            v = lookup(key, version);
+            if (v != null) return v;
+            misses.incrementAndGet();
+            v = loader.get();
+            if (v != null) put(key, version, v);
+            return v;
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        Entry<V> e = entries.remove(key);
+        if (e != null) currentBytes -= e.bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("name", name);
+        s.put("hits", hits.get());
+        s.put("misses", misses.get());
+        s.put("evictions", evictions.get());
+        synchronized (this) {
+            s.put("entries", entries.size());
+            s.put("bytes", currentBytes);
+        }
+        s.put("maxBytes", maxBytes);
+        return s;
+    }
+
+    private V lookup(K key, long version) {
+        Entry<V> e;
+        synchronized (this) {
+            e = entries.get(key);
+        }
+        if (e == null || e.version != version) return null;
+        hits.incrementAndGet();
+        return e.value;
+    }
+
+    private void put(K key, long version, V value) {
+        long bytes = Math.max(sizer.applyAsLong(value), 1);
+        synchronized (this) {
+            Entry<V> old = entries.remove(key);
+            if (old != null) currentBytes -= old.bytes;
+            // a value larger than the whole budget is served but never kept
+            if (bytes > maxBytes) return;
+            entries.put(key, new Entry<>(value, version, bytes));
+            currentBytes += bytes;
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                currentBytes -= eldest.getValue().bytes;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
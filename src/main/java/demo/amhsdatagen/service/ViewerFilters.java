@@ -0,0 +1,76 @@
+package demo.amhsdatagen.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 2D/3D 뷰어 공용 필터: 캐시된 레이어 분할 인덱스(LayerPartition)에서 선택된 요소만 모아 응답 생성
+ */
+final class ViewerFilters {
+
+    private ViewerFilters() {
+    }
+
+    // 응답은 partition이 만들어진 output 스냅샷 기준 (필터가 없으면 그 output 그대로)
+    static JsonNode apply(ConfigService configService, String userId, LayerPartition partition, JsonNode filters) {
+        if (filters == null || filters.isNull()) {
+            return partition.output();
+        }
+
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+
+        // Layer Filter 처리
+        JsonNode layers = filters.path("layers");
+        Set<String> layerNames = names(layers);
+        boolean showOverlap = layerNames.contains("Overlap");
+        // Overlap이 체크되면 모든 레이어(z3000 포함)를 하나의 창에 표시
+        int layerMask = 0;
+        if (showOverlap || layerNames.contains("z6022")) layerMask |= LayerPartition.Z6022;
+        if (showOverlap || layerNames.contains("z4822")) layerMask |= LayerPartition.Z4822;
+        if (showOverlap) layerMask |= LayerPartition.Z3000;
+
+        // Component Filter 처리
+        JsonNode components = filters.path("components");
+        Set<String> componentNames = names(components);
+        boolean showAddresses = componentNames.contains("addresses");
+
+        // 필터링된 addresses 추가
+        if (showAddresses) {
+            result.set("addresses", partition.addresses(layerMask));
+        }
+
+        // 필터링된 lines 추가: addresses가 선택된 경우 양 끝점(fromAddress/toAddress)이 모두 표시되는 라인만, 아니면 전체
+        if (componentNames.contains("lines")) {
+            result.set("lines", showAddresses ? partition.lines(layerMask) : partition.allLines());
+        }
+
+        // 필터링된 stations 추가
+        if (componentNames.contains("stations")) {
+            result.set("stations", partition.stations(layerMask));
+        }
+
+        // OHT 궤적은 /oht-log/trajectories에서 따로 조회 (전체 로그를 응답에 싣지 않음)
+        if (componentNames.contains("ohts")) {
+            result.put("has_oht_log", configService.hasOhtLog(userId));
+        }
+
+        // 필터 정보 추가
+        result.put("overlap_mode", showOverlap);
+        result.set("selected_layers", layers);
+        result.set("selected_components", components);
+
+        return result;
+    }
+
+    private static Set<String> names(JsonNode array) {
+        Set<String> names = new HashSet<>();
+        if (array.isArray()) {
+            for (JsonNode n : array) names.add(n.asText());
+        }
+        return names;
+    }
+}
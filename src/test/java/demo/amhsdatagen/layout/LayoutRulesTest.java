@@ -0,0 +1,117 @@
+package demo.amhsdatagen.layout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class LayoutRulesTest {
+
+    // 2^20 tenths: the packed key holds 21 bits per coordinate
+    private static final double LIMIT = 104857.6;
+
+    @Test
+    void tenthsMatchesFormatterOnTies() {
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double tie = (i * 10 + 5) / 100.0; // 0.05, 0.15, 0.25, ...
+            values.add(tie);
+            values.add(Math.nextUp(tie));
+            values.add(Math.nextDown(tie));
+            values.add(tie + 1e-7);
+            values.add(tie - 1e-7);
+        }
+        for (double v : new double[] {2.675, 1.005, 0.45, 8.25, 1234.55, 4821.95, 6022.05, 99999.95}) values.add(v);
+        for (double v : values) {
+            assertTenths(v);
+            assertTenths(-v);
+        }
+    }
+
+    @Test
+    void tenthsOfNegativeZeroNeedsTheStringKey() {
+        for (double v : new double[] {-0.0, -0.01, -0.04, -0.049999, -Double.MIN_VALUE}) {
+            assertEquals("-0.0", format(v));
+            assertEquals(LayoutRules.NO_KEY, LayoutRules.tenths(v), String.valueOf(v));
+        }
+        assertEquals(0, LayoutRules.tenths(0.0));
+        assertEquals(0, LayoutRules.tenths(Double.MIN_VALUE));
+        assertEquals(-1, LayoutRules.tenths(-0.05));
+        assertEquals(-1, LayoutRules.tenths(-0.06));
+    }
+
+    @Test
+    void tenthsAtTheLimits() {
+        double[] values = {
+                LIMIT, Math.nextDown(LIMIT), LIMIT - 0.05, LIMIT - 0.1, LIMIT - 0.15, LIMIT + 0.05,
+                -LIMIT, -LIMIT - 0.04, -LIMIT - 0.05, -LIMIT - 0.1, -LIMIT + 0.1,
+                99_999_999.95, 99_999_999.94, 1e8, 1e8 + 0.05, 1e12, 1e300,
+                Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN
+        };
+        for (double v : values) assertTenths(v);
+        assertNotEquals(LayoutRules.NO_KEY, LayoutRules.tenths(LIMIT - 0.1));
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.tenths(LIMIT));
+        assertNotEquals(LayoutRules.NO_KEY, LayoutRules.tenths(-LIMIT));
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.tenths(-LIMIT - 0.1));
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.tenths(Double.NaN));
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.tenths(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void tenthsMatchesFormatterOnRandomValues() {
+        Random rnd = new Random(20);
+        for (int i = 0; i < 200_000; i++) {
+            double v = switch (i % 4) {
+                case 0 -> (rnd.nextDouble() - 0.5) * 2 * LIMIT;
+                case 1 -> Math.round((rnd.nextDouble() - 0.5) * 2e6) / 100.0;
+                case 2 -> Math.round((rnd.nextDouble() - 0.5) * 2e7) / 1000.0;
+                default -> (rnd.nextDouble() - 0.5) * 1e-3;
+            };
+            assertTenths(v);
+        }
+    }
+
+    @Test
+    void positionKeysAreEqualExactlyWhenTheFormattedPositionsAre() {
+        double[] pool = {0.0, -0.0, 0.04, 0.05, 0.06, -0.05, 0.15, 0.149999999, 1.25, 1.2500001,
+                4822.0, 4821.95, 6022.0, 6022.04, LIMIT - 0.1, -LIMIT, 1e9};
+        for (double x1 : pool) {
+            for (double y1 : pool) {
+                for (double x2 : pool) {
+                    for (double y2 : pool) {
+                        long k1 = LayoutRules.positionKey(x1, y1, 4822.0);
+                        long k2 = LayoutRules.positionKey(x2, y2, 4822.0);
+                        if (k1 == LayoutRules.NO_KEY || k2 == LayoutRules.NO_KEY) continue;
+                        boolean sameText = format(x1).equals(format(x2)) && format(y1).equals(format(y2));
+                        assertEquals(sameText, k1 == k2, "(" + x1 + "," + y1 + ") vs (" + x2 + "," + y2 + ")");
+                    }
+                }
+            }
+        }
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.positionKey(1, -0.0, 2));
+        assertEquals(LayoutRules.NO_KEY, LayoutRules.positionKey(1, 2, Double.NaN));
+    }
+
+    // What tenths must return: the printed value in tenths, or NO_KEY for "-0.0" and values the
+    // packed key cannot hold
+    private static void assertTenths(double v) {
+        String s = format(v);
+        long expected;
+        try {
+            long q = Long.parseLong(s.replace(".", ""));
+            expected = s.equals("-0.0") || q >= (1L << 20) || q < -(1L << 20) ? LayoutRules.NO_KEY : q;
+        } catch (NumberFormatException e) {
+            expected = LayoutRules.NO_KEY;
+        }
+        assertEquals(expected, LayoutRules.tenths(v), v + " prints as " + s);
+    }
+
+    private static String format(double v) {
+        return String.format(Locale.ROOT, "%.1f", v);
+    }
+}
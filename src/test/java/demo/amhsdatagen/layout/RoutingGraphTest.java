@@ -0,0 +1,192 @@
+package demo.amhsdatagen.layout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoutingGraphTest {
+
+    @Test
+    void shortestPathMatchesDijkstra() {
+        Random rnd = new Random(10);
+        for (int round = 0; round < 50; round++) {
+            LayoutGraph layout = randomLayout(rnd, 40, 90, false);
+            checkAgainstReference(layout, rnd);
+        }
+    }
+
+    @Test
+    void shortestPathStaysOptimalWhenLinesAreShorterThanTheirAddresses() {
+        Random rnd = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            LayoutGraph layout = randomLayout(rnd, 40, 90, true);
+            checkAgainstReference(layout, rnd);
+        }
+    }
+
+    @Test
+    void heuristicIsScaledBelowTheShortestLine() {
+        // 1 -> 3 directly is 100 long; 1 -> 2 -> 3 runs through addresses far apart, but its
+        // lines carry positions only 1 apart. An unscaled straight-line heuristic at 2 would
+        // overestimate and A* would settle on the direct line.
+        LayoutGraph layout = new LayoutGraph();
+        layout.addAddress(1, 0, 0, 0);
+        layout.addAddress(2, 0, 500, 0);
+        layout.addAddress(3, 100, 0, 0);
+        layout.addLine(1, null, 1, 3, 0, 0, 0, 100, 0, 0, false);
+        layout.addLine(2, null, 1, 2, 0, 0, 0, 1, 0, 0, false);
+        layout.addLine(3, null, 2, 3, 0, 0, 0, 1, 0, 0, false);
+
+        RoutingGraph.Search search = RoutingGraph.fromLines(layout).newSearch();
+        int[] path = search.shortestPath(1, 3);
+        assertNotNull(path);
+        assertEquals("[1, 2, 3]", Arrays.toString(path));
+        assertEquals(2.0, search.pathCost(), 1e-9);
+
+        int[] hops = search.fewestHopsPath(1, 3);
+        assertEquals("[1, 3]", Arrays.toString(hops));
+    }
+
+    @Test
+    void unknownOrDisconnectedAddressesHaveNoPath() {
+        LayoutGraph layout = new LayoutGraph();
+        layout.addAddress(1, 0, 0, 0);
+        layout.addAddress(2, 1, 0, 0);
+        layout.addAddress(3, 5, 0, 0);
+        layout.addAddress(4, 6, 0, 0);
+        layout.addLine(1, 0, 1, false);
+        layout.addLine(2, 2, 3, false);
+
+        RoutingGraph.Search search = RoutingGraph.fromLines(layout).newSearch();
+        assertNull(search.shortestPath(1, 4));
+        assertNull(search.fewestHopsPath(1, 4));
+        assertNull(search.shortestPath(1, 99));
+        assertEquals(1, search.searchShortest(3, 3));
+    }
+
+    private static void checkAgainstReference(LayoutGraph layout, Random rnd) {
+        RoutingGraph graph = RoutingGraph.fromLines(layout);
+        RoutingGraph.Search search = graph.newSearch();
+        int n = layout.addressCount();
+        for (int q = 0; q < 40; q++) {
+            int a = (int) layout.addressId(rnd.nextInt(n));
+            int b = (int) layout.addressId(rnd.nextInt(n));
+
+            double expected = dijkstra(layout, a, b);
+            int[] path = search.shortestPath(a, b);
+            if (Double.isInfinite(expected)) {
+                assertNull(path, "no path " + a + " -> " + b);
+                assertNull(search.fewestHopsPath(a, b));
+                continue;
+            }
+            assertNotNull(path, "path " + a + " -> " + b);
+            assertEquals(expected, search.pathCost(), 1e-9, "cost " + a + " -> " + b);
+            assertEquals(expected, walk(layout, path), 1e-9, "path " + Arrays.toString(path));
+
+            int[] hops = search.fewestHopsPath(a, b);
+            assertNotNull(hops);
+            assertEquals(bfs(layout, a, b) + 1, hops.length, "hops " + a + " -> " + b);
+            assertTrue(Double.isFinite(walk(layout, hops)), "hop path follows lines");
+        }
+    }
+
+    // Addresses on a grid; lines between random pairs with their positions either those of the
+    // addresses or, when shortened, scaled towards each other by a random factor
+    private static LayoutGraph randomLayout(Random rnd, int addresses, int lines, boolean shortened) {
+        LayoutGraph layout = new LayoutGraph();
+        for (int i = 0; i < addresses; i++) {
+            layout.addAddress(100 + i, rnd.nextInt(20) * 50.0, rnd.nextInt(20) * 50.0, 0);
+        }
+        for (int l = 0; l < lines; l++) {
+            int f = rnd.nextInt(addresses), t = rnd.nextInt(addresses);
+            double fx = layout.x(f), fy = layout.y(f), tx = layout.x(t), ty = layout.y(t);
+            if (shortened) {
+                double k = 0.05 + rnd.nextDouble() * 0.95;
+                double mx = (fx + tx) / 2, my = (fy + ty) / 2;
+                fx = mx + (fx - mx) * k;
+                fy = my + (fy - my) * k;
+                tx = mx + (tx - mx) * k;
+                ty = my + (ty - my) * k;
+            }
+            layout.addLine(l, null, layout.addressId(f), layout.addressId(t), fx, fy, 0, tx, ty, 0, false);
+        }
+        return layout;
+    }
+
+    private static double length(LayoutGraph layout, int l) {
+        double dx = layout.fromX(l) - layout.toX(l);
+        double dy = layout.fromY(l) - layout.toY(l);
+        double dz = layout.fromZ(l) - layout.toZ(l);
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static double dijkstra(LayoutGraph layout, long from, long to) {
+        int n = layout.addressCount();
+        double[] dist = new double[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        int s = layout.indexOf(from);
+        dist[s] = 0;
+        PriorityQueue<double[]> open = new PriorityQueue<>((x, y) -> Double.compare(x[0], y[0]));
+        open.add(new double[] {0, s});
+        while (!open.isEmpty()) {
+            double[] top = open.poll();
+            int v = (int) top[1];
+            if (top[0] > dist[v]) continue;
+            for (int l = 0; l < layout.lineCount(); l++) {
+                int w = layout.lineFrom(l) == v ? layout.lineTo(l) : layout.lineTo(l) == v ? layout.lineFrom(l) : -1;
+                if (w < 0) continue;
+                double c = dist[v] + length(layout, l);
+                if (c < dist[w]) {
+                    dist[w] = c;
+                    open.add(new double[] {c, w});
+                }
+            }
+        }
+        return from == to ? 0 : dist[layout.indexOf(to)];
+    }
+
+    private static int bfs(LayoutGraph layout, long from, long to) {
+        int n = layout.addressCount();
+        int[] hops = new int[n];
+        Arrays.fill(hops, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int s = layout.indexOf(from);
+        hops[s] = 0;
+        queue.add(s);
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            for (int l = 0; l < layout.lineCount(); l++) {
+                int w = layout.lineFrom(l) == v ? layout.lineTo(l) : layout.lineTo(l) == v ? layout.lineFrom(l) : -1;
+                if (w >= 0 && hops[w] < 0) {
+                    hops[w] = hops[v] + 1;
+                    queue.add(w);
+                }
+            }
+        }
+        return hops[layout.indexOf(to)];
+    }
+
+    // Length of a path along the shortest line between each consecutive pair (infinite if none)
+    private static double walk(LayoutGraph layout, int[] path) {
+        double total = 0;
+        for (int k = 1; k < path.length; k++) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int l = 0; l < layout.lineCount(); l++) {
+                long f = layout.lineFromAddress(l), t = layout.lineToAddress(l);
+                if ((f == path[k - 1] && t == path[k]) || (t == path[k - 1] && f == path[k])) {
+                    best = Math.min(best, length(layout, l));
+                }
+            }
+            total += best;
+        }
+        return total;
+    }
+}
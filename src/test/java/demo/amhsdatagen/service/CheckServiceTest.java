@@ -0,0 +1,170 @@
+package demo.amhsdatagen.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckServiceTest {
+
+    private static final String USER = "u1";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void incrementalCheckAfterAddLinesMatchesFullCheck() throws IOException {
+        for (long seed = 1; seed <= 5; seed++) {
+            MemoryTables tables = new MemoryTables();
+            ConfigService config = new ConfigService(tables, 1 << 26);
+            config.saveOutputToDb(USER, output(new Random(seed)));
+            CheckService check = new CheckService(config, true, 1L << 30);
+
+            CheckService.Result first = check.runCheck(USER);
+            assertFalse(first.incremental);
+
+            new LineEndpointService(config).runAddLines(USER);
+            CheckService.Result expected = fullCheck(tables);
+            CheckService.Result incremental = check.runCheck(USER);
+            assertTrue(incremental.incremental, "seed " + seed);
+            assertSameResult(expected, incremental, "seed " + seed + " after add-lines");
+
+            // the overlaps removed by the last check arrive as a removal delta
+            expected = fullCheck(tables);
+            incremental = check.runCheck(USER);
+            assertTrue(incremental.incremental, "seed " + seed);
+            assertSameResult(expected, incremental, "seed " + seed + " after removal");
+        }
+    }
+
+    @Test
+    void checkFallsBackToFullWithoutDeltas() throws IOException {
+        MemoryTables tables = new MemoryTables();
+        ConfigService config = new ConfigService(tables, 1 << 26);
+        config.saveOutputToDb(USER, output(new Random(7)));
+        CheckService check = new CheckService(config, true, 1L << 30);
+        check.runCheck(USER);
+
+        // a save without a delta (e.g. a new generation) cannot be applied to the retained index
+        config.saveOutputToDb(USER, output(new Random(8)));
+        CheckService.Result expected = fullCheck(tables);
+        CheckService.Result result = check.runCheck(USER);
+        assertFalse(result.incremental);
+        assertSameResult(expected, result, "after a save without delta");
+    }
+
+    // a fresh service over a copy of the stored output
+    private static CheckService.Result fullCheck(MemoryTables tables) throws IOException {
+        MemoryTables copy = new MemoryTables();
+        copy.values.putAll(tables.values);
+        CheckService.Result r = new CheckService(new ConfigService(copy, 1 << 26), true, 1L << 30).runCheck(USER);
+        assertFalse(r.incremental);
+        return r;
+    }
+
+    private static void assertSameResult(CheckService.Result expected, CheckService.Result actual, String where) {
+        assertEquals(expected.ruleCounts, actual.ruleCounts, where);
+        assertEquals(expected.summary, actual.summary, where);
+        assertEquals(expected.addressCount, actual.addressCount, where);
+        assertEquals(expected.lineCount, actual.lineCount, where);
+        assertEquals(expected.stationCount, actual.stationCount, where);
+        assertArrayEquals(expected.droppedLineIds, actual.droppedLineIds, where);
+        for (Map.Entry<String, Object> e : expected.connectivity.entrySet()) {
+            Object a = actual.connectivity.get(e.getKey());
+            if (e.getValue() instanceof long[] ids) assertArrayEquals(ids, (long[]) a, where + " " + e.getKey());
+            else if (e.getValue() instanceof int[] sizes) assertArrayEquals(sizes, (int[]) a, where + " " + e.getKey());
+            else assertEquals(e.getValue(), a, where + " " + e.getKey());
+        }
+    }
+
+    /**
+     * A layout with what the JSON round trip used to lose: addresses without names, lines
+     * without names or positions, non-object elements, duplicate address ids, dangling and
+     * zero-length lines, stored positions that differ from the addresses, overlaps, and
+     * addresses no line uses yet (which add-lines connects).
+     */
+    private static ObjectNode output(Random rnd) {
+        ObjectNode root = MAPPER.createObjectNode();
+        ArrayNode addresses = root.putArray("addresses");
+        int n = 150 + rnd.nextInt(100);
+        for (int i = 0; i < n; i++) {
+            long id = i > 0 && rnd.nextInt(25) == 0 ? 1000 + rnd.nextInt(i) : 1000 + i;
+            ObjectNode a = addresses.addObject();
+            a.put("id", id);
+            a.put("address", id);
+            int naming = rnd.nextInt(4);
+            if (naming == 1) a.put("name", "ADDR_" + id);
+            else if (naming == 2) a.put("name", "A" + rnd.nextInt(n));
+            else if (naming == 3) a.putNull("name");
+            pos(a.putObject("pos"), rnd.nextInt(40) * 500.0, rnd.nextInt(40) * 500.0, rnd.nextBoolean() ? 6022.0 : 4822.0);
+            if (rnd.nextInt(40) == 0) addresses.add("not an address");
+        }
+
+        ArrayNode lines = root.putArray("lines");
+        long lineId = 200000;
+        for (int k = 0; k < n / 2; k++) {
+            int f = rnd.nextInt(n / 2), t = rnd.nextInt(n / 2);
+            JsonPair ends = new JsonPair(addresses, f, t);
+            ObjectNode l = lines.addObject();
+            l.put("id", rnd.nextInt(30) == 0 ? lineId - 1 : lineId);
+            lineId++;
+            if (rnd.nextBoolean()) l.put("name", "LINE_" + ends.fromId + "_" + ends.toId);
+            else if (rnd.nextInt(3) == 0) l.putNull("name");
+            l.put("fromAddress", rnd.nextInt(8) == 0 ? 9999 : ends.fromId);
+            l.put("toAddress", ends.toId);
+            int positions = rnd.nextInt(6) - 1;
+            if (positions > 0) {
+                ObjectNode fp = l.putObject("fromPos");
+                fp.setAll(ends.fromPos);
+                if (positions == 1) fp.put("x", fp.path("x").asDouble() + 0.5);
+                if (positions != 2) l.set("toPos", ends.toPos.deepCopy());
+            }
+            l.put("curve", rnd.nextInt(10) == 0);
+            if (rnd.nextInt(8) == 0) lines.add(lines.get(lines.size() - 1).deepCopy());
+            if (rnd.nextInt(40) == 0) lines.add(42);
+        }
+
+        ArrayNode stations = root.putArray("stations");
+        for (int s = 0; s < 12; s++) {
+            ObjectNode st = stations.addObject();
+            st.put("id", 300000 + s);
+            st.put("name", "ST" + s);
+            pos(st.putObject("pos"), rnd.nextInt(40) * 500.0 + 250, rnd.nextInt(40) * 500.0, 6022.0);
+        }
+        return root;
+    }
+
+    private static void pos(ObjectNode p, double x, double y, double z) {
+        p.put("x", x);
+        p.put("y", y);
+        p.put("z", z);
+    }
+
+    // endpoint ids and positions of two address entries (skipping non-object elements)
+    private static final class JsonPair {
+        final long fromId;
+        final long toId;
+        final ObjectNode fromPos;
+        final ObjectNode toPos;
+
+        JsonPair(ArrayNode addresses, int f, int t) {
+            ObjectNode from = object(addresses, f), to = object(addresses, t);
+            fromId = from.path("id").asLong();
+            toId = to.path("id").asLong();
+            fromPos = (ObjectNode) from.path("pos");
+            toPos = (ObjectNode) to.path("pos");
+        }
+
+        private static ObjectNode object(ArrayNode array, int i) {
+            while (!array.get(i).isObject()) i++;
+            return (ObjectNode) array.get(i);
+        }
+    }
+}
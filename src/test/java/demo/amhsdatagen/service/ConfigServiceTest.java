@@ -0,0 +1,85 @@
+package demo.amhsdatagen.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigServiceTest {
+
+    private static final int USERS = 20;
+
+    @Test
+    void viewerPartitionsCountTheTreesTheyHold() {
+        MemoryTables tables = tablesWithOutputs();
+        long treeBytes = treeBytes(tables);
+        long budget = 3 * treeBytes;
+        ConfigService config = new ConfigService(tables, budget);
+
+        // viewers only ask for partitions; the tree entries they load age out first
+        for (int u = 0; u < USERS; u++) assertTrue(config.getLayerPartition("u" + u).isPresent());
+
+        Map<String, Object> stats = config.layoutCacheStats();
+        long bytes = (Long) stats.get("bytes");
+        int entries = (Integer) stats.get("entries");
+        assertTrue(entries > 0);
+        assertTrue(bytes <= budget, "bytes " + bytes + " over budget " + budget);
+        // every entry, tree or partition, keeps a whole tree in memory
+        assertTrue(bytes >= entries * treeBytes, "entries " + entries + " counted as " + bytes + " bytes, tree " + treeBytes);
+    }
+
+    @Test
+    void partitionOfTreeOverBudgetIsNotKept() {
+        MemoryTables tables = tablesWithOutputs();
+        ConfigService config = new ConfigService(tables, treeBytes(tables) / 2);
+
+        for (int u = 0; u < USERS; u++) assertTrue(config.getLayerPartition("u" + u).isPresent());
+
+        Map<String, Object> stats = config.layoutCacheStats();
+        assertEquals(0, stats.get("entries"));
+        assertEquals(0L, stats.get("bytes"));
+    }
+
+    // estimated size of one stored output tree, as the cache sees it
+    private static long treeBytes(MemoryTables tables) {
+        JsonNode tree = new ConfigService(tables, 1L << 30).getOutputSnapshot("u0").orElseThrow();
+        return ConfigService.estimateTreeBytes(tree);
+    }
+
+    private static MemoryTables tablesWithOutputs() {
+        MemoryTables tables = new MemoryTables();
+        ConfigService writer = new ConfigService(tables, 1L << 30);
+        ObjectNode output = output();
+        for (int u = 0; u < USERS; u++) writer.saveOutputToDb("u" + u, output);
+        return tables;
+    }
+
+    private static ObjectNode output() {
+        ObjectNode root = new ObjectMapper().createObjectNode();
+        ArrayNode addresses = root.putArray("addresses");
+        ArrayNode lines = root.putArray("lines");
+        for (int i = 0; i < 500; i++) {
+            ObjectNode a = addresses.addObject();
+            a.put("id", 1000 + i);
+            a.put("name", "ADDR_" + (1000 + i));
+            ObjectNode pos = a.putObject("pos");
+            pos.put("x", i * 100.0);
+            pos.put("y", (i % 10) * 100.0);
+            pos.put("z", i % 2 == 0 ? 6022.0 : 4822.0);
+            if (i > 0) {
+                ObjectNode l = lines.addObject();
+                l.put("id", 200000 + i);
+                l.put("fromAddress", 999 + i);
+                l.put("toAddress", 1000 + i);
+            }
+        }
+        root.putArray("stations");
+        return root;
+    }
+}
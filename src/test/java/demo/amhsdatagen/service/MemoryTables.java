@@ -0,0 +1,45 @@
+package demo.amhsdatagen.service;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// user tables kept in memory: only the CLOB read/write paths used by ConfigService's layout methods
+final class MemoryTables extends UserTableService {
+    final Map<String, String> values = new HashMap<>();
+
+    MemoryTables() {
+        super(null, null);
+    }
+
+    @Override
+    public <T> Optional<T> readFromUserTable(String userId, String key, ValueReader<T> valueReader) {
+        String v = values.get(userId + "|" + key);
+        if (v == null) return Optional.empty();
+        try {
+            return Optional.ofNullable(valueReader.readFrom(new StringReader(v)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void streamToUserTable(String userId, String key, ValueWriter valueWriter) {
+        StringWriter out = new StringWriter();
+        try {
+            valueWriter.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        values.put(userId + "|" + key, out.toString());
+    }
+
+    @Override
+    public boolean hasConfigKey(String userId, String key) {
+        return values.containsKey(userId + "|" + key);
+    }
+}
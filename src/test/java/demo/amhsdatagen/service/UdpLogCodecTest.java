@@ -0,0 +1,113 @@
+package demo.amhsdatagen.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UdpLogCodecTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Test
+    void emptyAndBlankChunksRoundTrip() {
+        for (String s : new String[] {"", "\n", "\n\n", "a", "a\n", "a\n\nb", "a\n\nb\n", "\r\n", " \n\t\n"}) {
+            assertRoundTrip(s);
+        }
+    }
+
+    @Test
+    void mixedRecordAndOtherLinesRoundTrip() {
+        UdpLogFormatter f = new UdpLogFormatter(ZoneOffset.UTC, 256);
+        String r1 = f.format(T0, 10, 11, 40, "OHT_1");
+        String r2 = f.format(T0 + 350, 3000, 3001, 3100, "OHT2");
+        String text = "# header\n" + r1 + "\n\n" + r2 + "\n주석 라인 (non-ASCII)\n" + r1 + "\r\n" + r2 + " trailing\n" + r2;
+        assertRoundTrip(text);
+
+        List<Boolean> records = new ArrayList<>();
+        UdpLogCodec.scan(UdpLogCodec.encode(text), line -> records.add(line.record));
+        // "r1\r" and "r2 trailing" are not in record format and stay verbatim
+        assertEquals(List.of(false, true, false, true, false, false, false, true), records);
+    }
+
+    @Test
+    void manyVehiclesRoundTrip() {
+        UdpLogFormatter f = new UdpLogFormatter(ZoneOffset.UTC, 1 << 16);
+        Random rnd = new Random(17);
+        long t = T0;
+        for (int i = 0; i < 2000; i++) {
+            t += rnd.nextInt(400);
+            int cur = rnd.nextInt(100_000);
+            f.appendLine(t, cur, cur + rnd.nextInt(3) - 1, rnd.nextInt(100_000), "OHT_" + rnd.nextInt(50));
+        }
+        String text = f.toString();
+        assertRoundTrip(text);
+        assertEquals(2000, UdpLogCodec.lineCount(UdpLogCodec.encode(text)));
+    }
+
+    @Test
+    void timestampsGoingBackwardsRoundTrip() {
+        UdpLogFormatter f = new UdpLogFormatter(ZoneOffset.UTC, 1024);
+        f.appendLine(T0, 1, 2, 9, "OHT_1");
+        f.appendLine(T0 - 86_400_000L, 2, 3, 9, "OHT_2");
+        f.appendLine(T0 - 1, 3, 4, 9, "OHT_1");
+        f.appendLine(T0 + 3_600_123L, 4, 1, 9, "OHT_3");
+        f.appendLine(T0 + 3_600_123L, 4, 1, 9, "OHT_3");
+        assertRoundTrip(f.toString());
+    }
+
+    @Test
+    void scanMatchesScanText() {
+        UdpLogFormatter f = new UdpLogFormatter(ZoneOffset.UTC, 4096);
+        for (int i = 0; i < 40; i++) {
+            if (i % 7 == 3) f.appendText("note " + i + "\n");
+            else f.appendLine(T0 + (i % 5 == 0 ? -i * 1000L : i * 321L), i, i + 1, 100 - i, "OHT_" + (i % 20));
+        }
+        String text = f.toString();
+
+        List<String> expected = new ArrayList<>();
+        UdpLogCodec.scanText(text, line -> expected.add(describe(line)));
+        List<String> actual = new ArrayList<>();
+        UdpLogCodec.scan(UdpLogCodec.encode(text), line -> actual.add(describe(line)));
+        assertEquals(expected, actual);
+        assertEquals(40, actual.size());
+    }
+
+    @Test
+    void scanStopsWhenTheVisitorReturnsFalse() {
+        UdpLogFormatter f = new UdpLogFormatter(ZoneOffset.UTC, 1024);
+        for (int i = 0; i < 10; i++) f.appendLine(T0 + i, i, i + 1, 50, "OHT_1");
+        int[] seen = {0};
+        UdpLogCodec.scan(UdpLogCodec.encode(f.toString()), line -> ++seen[0] < 4);
+        assertEquals(4, seen[0]);
+    }
+
+    @Test
+    void plainTextIsNotAnEncodedChunk() {
+        byte[] text = "[2024-01-01 00:00:00.000] not encoded".getBytes();
+        assertFalse(UdpLogCodec.isEncoded(text));
+        assertFalse(UdpLogCodec.isEncoded(null));
+        assertTrue(UdpLogCodec.isEncoded(UdpLogCodec.encode("")));
+        assertThrows(IllegalArgumentException.class, () -> UdpLogCodec.decode(text));
+    }
+
+    private static void assertRoundTrip(String text) {
+        byte[] data = UdpLogCodec.encode(text);
+        assertTrue(UdpLogCodec.isEncoded(data));
+        assertEquals(text, UdpLogCodec.decode(data), "round trip of " + text.length() + " chars");
+    }
+
+    private static String describe(UdpLogCodec.Line line) {
+        String fields = line.record
+                ? line.wallTime + " " + line.mcp + " " + line.current + " " + line.next + " " + line.destination
+                : "raw";
+        return line.index + " " + line.record + " " + fields + " | " + line.text();
+    }
+}